@@ -0,0 +1,73 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+public class AllocationLoad {
+
+    private interface Phase {
+        void run(Bench.Session session, byte[] buffer) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 5049;
+        String[] modes = args.length > 2 ? args[2].split(",") : new String[] { "platform", "nio" };
+
+        System.out.printf("%d opérations par phase%n", ops);
+        System.out.printf("%-10s %-10s %12s %14s %8s %10s%n", "mode", "phase", "ops/s", "octets/op", "gc", "gc (ms)");
+        for (String mode : modes) {
+            run(mode.trim(), ops, port);
+        }
+    }
+
+    private static void run(String mode, int ops, int port) throws Exception {
+        Path workDir = Files.createTempDirectory("bench-alloc");
+        Path storage = Files.createDirectories(workDir.resolve("server_storage"));
+        Files.write(storage.resolve("small.bin"), new byte[16 * 1024]);
+        Process server = Bench.startServer(workDir, port, "-Dserver.mode=" + mode);
+        String[] names = { "stat", "download", "upload" };
+        Phase[] phases = {
+            (s, b) -> s.command("stat small.bin"),
+            (s, b) -> s.download("small.bin", b),
+            (s, b) -> s.upload("up.bin", 16 * 1024, b),
+        };
+        try (Bench.Session session = new Bench.Session(port)) {
+            byte[] buffer = new byte[64 * 1024];
+            for (int p = 0; p < phases.length; p++) {
+                for (int i = 0; i < ops / 4; i++) {
+                    phases[p].run(session, buffer);
+                }
+                long[] before = sample(session);
+                long t0 = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    phases[p].run(session, buffer);
+                }
+                long elapsed = System.nanoTime() - t0;
+                long[] after = sample(session);
+                System.out.printf(Locale.ROOT, "%-10s %-10s %12.0f %14.1f %8d %10d%n", mode, names[p],
+                        ops / (elapsed / 1e9), (after[0] - before[0]) / (double) ops, after[1] - before[1],
+                        after[2] - before[2]);
+            }
+        } finally {
+            server.destroy();
+            server.waitFor();
+            Bench.deleteTree(workDir);
+        }
+    }
+
+    private static long[] sample(Bench.Session session) throws Exception {
+        String report = session.command("stats");
+        return new long[] { field(report, "jvm.allocated="), field(report, "gc.count="), field(report, "gc.time=") };
+    }
+
+    private static long field(String report, String key) {
+        int start = report.indexOf(key);
+        if (start < 0) throw new IllegalStateException("Champ absent des statistiques: " + key);
+        start += key.length();
+        int end = start;
+        while (end < report.length() && Character.isDigit(report.charAt(end))) end++;
+        return Long.parseLong(report.substring(start, end));
+    }
+}
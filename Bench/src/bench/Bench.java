@@ -0,0 +1,165 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+final class Bench {
+
+    private Bench() {}
+
+    static long drain(InputStream raw) throws IOException {
+        DataInputStream in = new DataInputStream(raw);
+        long size = in.readLong();
+        byte[] buf = new byte[64 * 1024];
+        long remaining = size;
+        while (remaining > 0) {
+            int r = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (r == -1) throw new IOException("Stream ended prematurely");
+            remaining -= r;
+        }
+        return size;
+    }
+
+    static long processCpuNanos() {
+        var os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sun) {
+            return sun.getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    static Process startServer(Path workDir, int port, String... jvmArgs) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ProcessHandle.current().info().command().orElse("java"));
+        cmd.addAll(List.of(jvmArgs));
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add("server.Server");
+        Process p = new ProcessBuilder(cmd).directory(workDir.toFile()).redirectErrorStream(true).start();
+        OutputStream stdin = p.getOutputStream();
+        stdin.write(("127.0.0.1\n" + port + "\n").getBytes(StandardCharsets.UTF_8));
+        stdin.flush();
+
+        BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = out.readLine()) != null && !line.contains("Serveur d")) {
+            if (line.contains("Erreur") || line.contains("invalide")) throw new IOException(line);
+        }
+        if (line == null) throw new IOException("Le serveur s'est arrêté au démarrage");
+        Thread drain = new Thread(() -> {
+            try {
+                while (out.readLine() != null) {}
+            } catch (IOException ignored) {}
+        });
+        drain.setDaemon(true);
+        drain.start();
+        return p;
+    }
+
+    static long rssKb(long pid) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/" + pid + "/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (var paths = Files.walk(root)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    static final class Session implements Closeable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Session(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in.readUTF();
+        }
+
+        synchronized String command(String line) throws IOException {
+            out.writeUTF(line);
+            out.flush();
+            return in.readUTF();
+        }
+
+        synchronized String read() throws IOException {
+            return in.readUTF();
+        }
+
+        DataInputStream in() {
+            return in;
+        }
+
+        DataOutputStream out() {
+            return out;
+        }
+
+        void timeout(int millis) throws IOException {
+            socket.setSoTimeout(millis);
+        }
+
+        synchronized long download(String name, byte[] buffer) throws IOException {
+            String response = command("download " + name);
+            if (!response.startsWith("OK")) throw new IOException(response);
+            long size = in.readLong();
+            long remaining = size;
+            while (remaining > 0) {
+                int r = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (r == -1) throw new IOException("Stream ended prematurely");
+                remaining -= r;
+            }
+            return size;
+        }
+
+        synchronized long upload(String name, long size, byte[] buffer) throws IOException {
+            String response = command("upload " + name);
+            if (!response.startsWith("OK")) throw new IOException(response);
+            out.writeLong(size);
+            for (long written = 0; written < size; ) {
+                int n = (int) Math.min(buffer.length, size - written);
+                out.write(buffer, 0, n);
+                written += n;
+            }
+            out.flush();
+            response = in.readUTF();
+            if (!response.startsWith("OK")) throw new IOException(response);
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
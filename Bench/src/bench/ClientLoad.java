@@ -0,0 +1,94 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ClientLoad {
+
+    public static void main(String[] args) throws Exception {
+        String[] clients = args.length > 0 ? args[0].split(",") : new String[] { "1", "8", "64", "256" };
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 5048;
+        String mode = args.length > 3 ? args[3] : "platform";
+
+        System.out.printf("mode %s, %d s par palier%n", mode, seconds);
+        System.out.printf("%8s %12s %12s %s%n", "clients", "ops/s", "erreurs", "latence");
+        for (String n : clients) {
+            run(Integer.parseInt(n.trim()), seconds, port, mode);
+        }
+    }
+
+    private static void run(int clients, int seconds, int port, String mode) throws Exception {
+        Path workDir = Files.createTempDirectory("bench-clients");
+        Path storage = Files.createDirectories(workDir.resolve("server_storage"));
+        Files.write(storage.resolve("small.bin"), new byte[16 * 1024]);
+        for (int i = 0; i < 100; i++) {
+            Files.createFile(storage.resolve("entry-" + i));
+        }
+        Process server = Bench.startServer(workDir, port, "-Dserver.mode=" + mode,
+                "-Dserver.maxSessions=" + (clients + 16), "-Dserver.poolThreads=" + (clients + 16));
+        List<Bench.Session> sessions = new ArrayList<>();
+        try {
+            for (int i = 0; i < clients; i++) {
+                Bench.Session s = new Bench.Session(port);
+                sessions.add(s);
+                s.command("mkdir c" + i);
+            }
+            Harness.Latencies all = new Harness.Latencies(1 << 16);
+            LongAdder errors = new LongAdder();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            Thread[] threads = new Thread[clients];
+            for (int i = 0; i < clients; i++) {
+                Bench.Session session = sessions.get(i);
+                String home = "c" + i;
+                threads[i] = new Thread(() -> {
+                    Harness.Latencies mine = new Harness.Latencies(1 << 12);
+                    byte[] buffer = new byte[64 * 1024];
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            long t0 = System.nanoTime();
+                            if (!step(session, home, buffer)) errors.increment();
+                            mine.add(System.nanoTime() - t0);
+                        }
+                    } catch (IOException e) {
+                        errors.increment();
+                    }
+                    all.addAll(mine);
+                });
+                threads[i].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            System.out.printf("%8d %12.0f %12d %s%n", clients, all.count() / (double) seconds, errors.sum(),
+                    all.format());
+        } finally {
+            for (Bench.Session s : sessions) {
+                s.close();
+            }
+            server.destroy();
+            server.waitFor();
+            Bench.deleteTree(workDir);
+        }
+    }
+
+    private static boolean step(Bench.Session session, String home, byte[] buffer) throws IOException {
+        int pick = ThreadLocalRandom.current().nextInt(100);
+        if (pick < 40) return session.command("ls").startsWith("OK");
+        if (pick < 60) return session.command("stat entry-" + (pick % 100)).startsWith("OK");
+        if (pick < 75) return session.download("small.bin", buffer) > 0;
+        if (pick < 85) return session.upload(home + "/up.bin", 16 * 1024, buffer) > 0;
+        if (pick < 95) {
+            boolean ok = session.command("cd " + home).startsWith("OK");
+            return session.command("cd ..").startsWith("OK") && ok;
+        }
+        String dir = home + "/tmp" + pick;
+        boolean ok = session.command("mkdir " + dir).startsWith("OK");
+        return session.command("delete " + dir).startsWith("OK") && ok;
+    }
+}
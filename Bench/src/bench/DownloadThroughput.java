@@ -0,0 +1,89 @@
+package bench;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import server.FileTransfer;
+
+public class DownloadThroughput {
+
+    public static void main(String[] args) throws Exception {
+        long sizeMb = args.length > 0 ? Long.parseLong(args[0]) : 512;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path file = Files.createTempFile("bench-download", ".bin");
+        try {
+            fill(file, sizeMb * 1024 * 1024);
+            long size = Files.size(file);
+            System.out.println("Fichier: " + sizeMb + " MiB, " + rounds + " tours");
+
+            for (String mode : new String[] { "stream", "transferTo" }) {
+                run(mode, file, size);
+                double best = 0;
+                long cpu = 0;
+                for (int i = 0; i < rounds; i++) {
+                    long cpuBefore = Bench.processCpuNanos();
+                    long t0 = System.nanoTime();
+                    run(mode, file, size);
+                    long elapsed = System.nanoTime() - t0;
+                    cpu += Bench.processCpuNanos() - cpuBefore;
+                    best = Math.max(best, size / (elapsed / 1e9) / (1024 * 1024));
+                }
+                System.out.printf("%-12s %10.1f MiB/s   cpu/tour %8.1f ms%n", mode, best, cpu / 1e6 / rounds);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void run(String mode, Path file, long size) throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread sender = new Thread(() -> {
+                try (SocketChannel ch = server.accept()) {
+                    Socket socket = ch.socket();
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeLong(size);
+                    if (mode.equals("transferTo")) {
+                        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+                            FileTransfer.transferTo(fc, 0, size, ch);
+                        }
+                    } else {
+                        try (InputStream fis = Files.newInputStream(file)) {
+                            FileTransfer.copy(fis, out, size);
+                        }
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            sender.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort())) {
+                Bench.drain(socket.getInputStream());
+            }
+            sender.join();
+        }
+    }
+
+    private static void fill(Path file, long size) throws IOException {
+        byte[] chunk = new byte[FileTransfer.BUFFER_SIZE];
+        new Random(42).nextBytes(chunk);
+        try (var out = Files.newOutputStream(file, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long written = 0; written < size; written += chunk.length) {
+                out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+    }
+}
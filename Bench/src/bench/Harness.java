@@ -0,0 +1,109 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+final class Harness {
+    static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+    static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    static final long ITERATION_MILLIS = Long.getLong("bench.iterationMillis", 1000);
+
+    interface Op {
+        long run() throws Exception;
+    }
+
+    record Result(double mean, double error, long ops) {
+        String format(String unit) {
+            return String.format(Locale.ROOT, "%12.2f ± %8.2f %s", mean, error, unit);
+        }
+    }
+
+    private Harness() {}
+
+    static Result throughput(Op op, double scale) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            iteration(op, scale);
+        }
+        double[] samples = new double[ITERATIONS];
+        long ops = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            double[] r = iteration(op, scale);
+            samples[i] = r[0];
+            ops += (long) r[1];
+        }
+        return summarize(samples, ops);
+    }
+
+    static Latencies latency(Op op, int samples) throws Exception {
+        for (int i = 0; i < Math.max(1, samples / 10); i++) {
+            op.run();
+        }
+        Latencies l = new Latencies(samples);
+        for (int i = 0; i < samples; i++) {
+            long t0 = System.nanoTime();
+            op.run();
+            l.add(System.nanoTime() - t0);
+        }
+        return l;
+    }
+
+    private static double[] iteration(Op op, double scale) throws Exception {
+        long deadline = System.nanoTime() + ITERATION_MILLIS * 1_000_000;
+        long units = 0;
+        long ops = 0;
+        long t0 = System.nanoTime();
+        long now;
+        do {
+            units += op.run();
+            ops++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return new double[] { units / scale / ((now - t0) / 1e9), ops };
+    }
+
+    private static Result summarize(double[] samples, long ops) {
+        double mean = Arrays.stream(samples).average().orElse(0);
+        double var = 0;
+        for (double s : samples) {
+            var += (s - mean) * (s - mean);
+        }
+        double sd = samples.length > 1 ? Math.sqrt(var / (samples.length - 1)) : 0;
+        return new Result(mean, 3.29 * sd / Math.sqrt(samples.length), ops);
+    }
+
+    static final class Latencies {
+        private long[] values;
+        private int size;
+
+        Latencies(int capacity) {
+            values = new long[Math.max(16, capacity)];
+        }
+
+        synchronized void add(long nanos) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = nanos;
+        }
+
+        synchronized void addAll(Latencies other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        synchronized int count() {
+            return size;
+        }
+
+        synchronized long percentile(double p) {
+            if (size == 0) return 0;
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(size - 1, Math.max(0, Math.ceil(p / 100.0 * size) - 1))];
+        }
+
+        String format() {
+            return String.format(Locale.ROOT, "p50 %9.1f us  p99 %9.1f us  max %9.1f us",
+                    percentile(50) / 1e3, percentile(99) / 1e3, percentile(100) / 1e3);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ListingLatency {
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = args.length > 0 ? parseInts(args[0]) : new int[] { 10, 1000, 10_000, 100_000 };
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 5047;
+        String[] caches = args.length > 3 ? args[3].split(",") : new String[] { "100000", "0" };
+
+        System.out.printf("%-8s %8s %-6s %s%n", "cache", "entrées", "cmd", "latence");
+        for (String cache : caches) {
+            run(Integer.parseInt(cache.trim()), counts, samples, port);
+        }
+    }
+
+    private static void run(int cacheEntries, int[] counts, int samples, int port) throws Exception {
+        Path workDir = Files.createTempDirectory("bench-listing");
+        Path storage = Files.createDirectories(workDir.resolve("server_storage"));
+        for (int count : counts) {
+            Path dir = Files.createDirectories(storage.resolve("d" + count));
+            for (int i = 0; i < count; i++) {
+                Files.createFile(dir.resolve(String.format("file-%07d.txt", i)));
+            }
+        }
+        Process server = Bench.startServer(workDir, port, "-Dserver.cacheEntries=" + cacheEntries);
+        try (Bench.Session session = new Bench.Session(port)) {
+            for (int count : counts) {
+                expect(session.command("cd d" + count));
+                Harness.Latencies ls = Harness.latency(() -> {
+                    expect(session.command("ls"));
+                    return 1;
+                }, samples);
+                System.out.printf("%-8d %8d %-6s %s%n", cacheEntries, count, "ls", ls.format());
+                Harness.Latencies list = Harness.latency(() -> listAll(session), Math.max(5, samples / 10));
+                System.out.printf("%-8d %8d %-6s %s%n", cacheEntries, count, "list", list.format());
+                expect(session.command("cd .."));
+            }
+        } finally {
+            server.destroy();
+            server.waitFor();
+            Bench.deleteTree(workDir);
+        }
+    }
+
+    private static long listAll(Bench.Session session) throws IOException {
+        long token = 0;
+        long frames = 0;
+        while (true) {
+            expect(session.command("list 1000 " + token));
+            String frame;
+            while (!(frame = session.read()).equals("END") && !frame.startsWith("MORE ")) {
+                frames++;
+            }
+            if (frame.equals("END")) return frames;
+            token = Long.parseLong(frame.substring(5));
+        }
+    }
+
+    private static void expect(String response) throws IOException {
+        if (!response.startsWith("OK")) throw new IOException(response);
+    }
+
+    private static int[] parseInts(String arg) {
+        String[] parts = arg.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
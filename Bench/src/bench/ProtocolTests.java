@@ -0,0 +1,648 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+public class ProtocolTests {
+    private static final int TIMEOUT_MILLIS = 10_000;
+    private static final int WINDOW = 16 * 1024;
+    private static final String UNAVAILABLE = "ERR Commande non disponible dans ce mode";
+
+    private interface Check {
+        void run(int port, Path storage) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5047;
+        String[] modes = args.length > 1 ? args[1].split(",") : new String[] { "platform", "nio", "dedup" };
+
+        int failed = 0;
+        for (String mode : modes) {
+            failed += run(mode.trim(), port);
+        }
+        if (failed > 0) {
+            System.out.println(failed + " vérification(s) en échec");
+            System.exit(1);
+        }
+        System.out.println("Toutes les vérifications ont réussi");
+    }
+
+    private static int run(String mode, int port) throws Exception {
+        Path workDir = Files.createTempDirectory("bench-protocol");
+        Path storage = Files.createDirectories(workDir.resolve("server_storage"));
+        Files.write(storage.resolve("f.bin"), content(200_000, 1));
+        Files.write(storage.resolve("u.ranges"), content(100, 9));
+        Files.setLastModifiedTime(storage.resolve("u.ranges"), FileTime.fromMillis(0));
+        Process server = Bench.startServer(workDir, port,
+                mode.equals("dedup") ? "-Dserver.storage=dedup" : "-Dserver.mode=" + mode);
+
+        Map<String, Check> checks = new LinkedHashMap<>();
+        if (mode.equals("dedup")) {
+            checks.put("dedup: trailer faux en téléversement", ProtocolTests::dedupIntegrity);
+            checks.put("dedup: gc pendant un téléversement dupliqué", ProtocolTests::dedupGc);
+        } else {
+            protocolChecks(mode, checks);
+        }
+
+        int failed = 0;
+        try {
+            for (Map.Entry<String, Check> check : checks.entrySet()) {
+                try {
+                    check.getValue().run(port, storage);
+                    System.out.printf(Locale.ROOT, "%-10s ok     %s%n", mode, check.getKey());
+                } catch (Exception | AssertionError e) {
+                    failed++;
+                    System.out.printf(Locale.ROOT, "%-10s ÉCHEC  %s: %s%n", mode, check.getKey(), e);
+                }
+            }
+        } finally {
+            server.destroy();
+            server.waitFor();
+            Bench.deleteTree(workDir);
+        }
+        return failed;
+    }
+
+    private static void protocolChecks(String mode, Map<String, Check> checks) {
+        checks.put("range: commit après couverture complète", ProtocolTests::rangeCommit);
+        checks.put("range: offsets et tailles invalides", ProtocolTests::rangeBounds);
+        checks.put("range: corps tronqué", ProtocolTests::rangeTruncated);
+        checks.put("range: espace de noms réservé", ProtocolTests::rangeNamespace);
+        checks.put("range: download-range hors limites", ProtocolTests::downloadRange);
+        checks.put("tags: commandes pipelinées", ProtocolTests::pipelinedTags);
+        if (mode.equals("nio")) {
+            checks.put("crc/tree/mux: indisponibles", ProtocolTests::unavailable);
+        } else {
+            checks.put("crc: trailer en téléchargement et téléversement", ProtocolTests::integrityTrailer);
+            checks.put("tree: aller-retour des trames", ProtocolTests::treeRoundTrip);
+            checks.put("tree: flux tronqué et trame inconnue", ProtocolTests::treeTruncated);
+            checks.put("mux: fenêtre de flux", ProtocolTests::muxFlowControl);
+            checks.put("mux: flux interrompu et dépassement", ProtocolTests::muxAbort);
+            checks.put("mux: débit de session partagé", ProtocolTests::muxSessionRate);
+        }
+    }
+
+    private static void rangeCommit(int port, Path storage) throws Exception {
+        byte[] data = content(100_000, 2);
+        try (Bench.Session s = session(port)) {
+            equal(s.command("allocate 100000 r.bin"), "OK");
+            equal(s.command("upload-range 50000 r.bin"), "OK");
+            equal(body(s, data, 50_000, 50_000), "OK");
+            equal(s.command("commit 100000 r.bin"), "ERR Incomplete upload");
+            equal(s.command("upload-range 0 r.bin"), "OK");
+            equal(body(s, data, 0, 50_000), "OK");
+            prefix(s.command("commit 100000 r.bin"), "OK");
+            check(Arrays.equals(Files.readAllBytes(storage.resolve("r.bin")), data), "contenu publié différent");
+            check(empty(storage.resolve(".server_tmp/ranges")), "fichier d'allocation toujours présent");
+            equal(s.command("commit 100000 r.bin"), "ERR Incomplete upload");
+            equal(s.command("upload-range 0 r.bin"), "ERR Not allocated");
+        }
+    }
+
+    private static void rangeBounds(int port, Path storage) throws Exception {
+        byte[] data = content(1000, 3);
+        try (Bench.Session s = session(port)) {
+            equal(s.command("upload-range 0 b.bin"), "ERR Not allocated");
+            equal(s.command("allocate 1000 b.bin"), "OK");
+            equal(s.command("upload-range 1001 b.bin"), "ERR Invalid offset");
+            prefix(s.command("upload-range -1 b.bin"), "ERR Usage");
+            equal(s.command("upload-range 900 b.bin"), "OK");
+            prefix(body(s, content(200, 4), 0, 200), "ERR Invalid range");
+            equal(s.command("upload-range 0 b.bin"), "OK");
+            equal(body(s, data, 0, data.length), "OK");
+            equal(s.command("commit 999 b.bin"), "ERR Incomplete upload");
+            prefix(s.command("commit 1000 b.bin"), "OK");
+            check(Arrays.equals(Files.readAllBytes(storage.resolve("b.bin")), data), "contenu publié différent");
+        }
+    }
+
+    private static void rangeTruncated(int port, Path storage) throws Exception {
+        try (Bench.Session s = session(port)) {
+            equal(s.command("allocate 1000 t.bin"), "OK");
+            equal(s.command("upload-range 0 t.bin"), "OK");
+            s.out().writeLong(1000);
+            s.out().write(new byte[10]);
+            s.out().flush();
+        }
+        Path ranges = storage.resolve(".server_tmp/ranges");
+        await(() -> empty(ranges), "fichier d'allocation toujours présent après l'abandon");
+        try (Bench.Session s = session(port)) {
+            equal(s.command("upload-range 0 t.bin"), "ERR Not allocated");
+            equal(s.command("commit 1000 t.bin"), "ERR Incomplete upload");
+        }
+    }
+
+    private static void rangeNamespace(int port, Path storage) throws Exception {
+        check(Files.exists(storage.resolve("u.ranges")), "u.ranges supprimé au démarrage");
+        byte[] data = content(1000, 5);
+        Files.write(storage.resolve("n.bin.ranges"), data);
+        try (Bench.Session s = session(port)) {
+            equal(s.command("allocate 1000 n.bin"), "OK");
+            equal(s.command("upload-range 0 n.bin"), "OK");
+            equal(body(s, content(1000, 6), 0, 1000), "OK");
+            prefix(s.command("commit 1000 n.bin"), "OK");
+            check(Arrays.equals(Files.readAllBytes(storage.resolve("n.bin.ranges")), data), "n.bin.ranges modifié");
+            equal(s.command("stat n.bin.ranges"), "OK 1000");
+        }
+        try (Bench.Session s = session(port)) {
+            s.out().writeUTF("allocate 10 .server_tmp/ranges/1.ranges");
+            s.out().flush();
+            closed(s);
+        }
+    }
+
+    private static void downloadRange(int port, Path storage) throws Exception {
+        byte[] f = Files.readAllBytes(storage.resolve("f.bin"));
+        try (Bench.Session s = session(port)) {
+            equal(s.command("download-range 0 " + Long.MAX_VALUE + " f.bin"), "ERR Invalid range");
+            equal(s.command("download-range 200001 0 f.bin"), "ERR Invalid range");
+            equal(s.command("download-range 199000 2000 f.bin"), "ERR Invalid range");
+            equal(s.command("download-range 1000 500 f.bin"), "OK");
+            check(Arrays.equals(readBody(s), Arrays.copyOfRange(f, 1000, 1500)), "plage reçue différente");
+            equal(s.command("stat f.bin"), "OK 200000");
+        }
+    }
+
+    private static void pipelinedTags(int port, Path storage) throws Exception {
+        byte[] f = Files.readAllBytes(storage.resolve("f.bin"));
+        try (Bench.Session s = session(port)) {
+            for (String line : List.of("#a stat f.bin", "#b stat absent.bin", "#c bogus", "#d", "#e download f.bin",
+                    "#f stat f.bin")) {
+                s.out().writeUTF(line);
+            }
+            s.out().flush();
+            equal(s.read(), "#a");
+            equal(s.read(), "OK 200000");
+            equal(s.read(), "#b");
+            equal(s.read(), "ERR Not a file");
+            equal(s.read(), "#c");
+            equal(s.read(), "ERR Unknown command");
+            equal(s.read(), "#d");
+            equal(s.read(), "ERR Empty command");
+            equal(s.read(), "#e");
+            equal(s.read(), "OK");
+            check(Arrays.equals(readBody(s), f), "téléchargement étiqueté différent");
+            equal(s.read(), "#f");
+            equal(s.read(), "OK 200000");
+        }
+    }
+
+    private static void integrityTrailer(int port, Path storage) throws Exception {
+        byte[] f = Files.readAllBytes(storage.resolve("f.bin"));
+        byte[] g = content(70_000, 6);
+        byte[] h = content(70_000, 7);
+        try (Bench.Session s = session(port)) {
+            equal(s.command("integrity crc32c"), "OK crc32c");
+            equal(s.command("download f.bin"), "OK");
+            check(Arrays.equals(readBody(s), f), "téléchargement différent");
+            equal(s.read(), "CRC32C " + hex(crc(f)));
+
+            equal(s.command("upload g.bin"), "OK");
+            prefix(body(s, g, "CRC32C " + hex(crc(g))), "OK");
+            equal(s.command("upload g.bin"), "OK");
+            prefix(body(s, h, "CRC32C " + hex(crc(h) ^ 1)), "ERR Somme de contrôle invalide");
+            check(Arrays.equals(Files.readAllBytes(storage.resolve("g.bin")), g), "g.bin remplacé malgré un trailer faux");
+            equal(s.command("checksum g.bin"), "OK crc32c " + hex(crc(g)) + " " + g.length);
+
+            equal(s.command("upload g.bin"), "OK");
+            s.out().writeLong(h.length);
+            s.out().write(h);
+            s.out().writeUTF("MD5 0");
+            s.out().flush();
+            closed(s);
+        }
+        check(Arrays.equals(Files.readAllBytes(storage.resolve("g.bin")), g), "g.bin remplacé malgré un trailer illisible");
+    }
+
+    private static void dedupIntegrity(int port, Path storage) throws Exception {
+        byte[] g = content(300_000, 8);
+        byte[] h = content(300_000, 9);
+        try (Bench.Session s = session(port)) {
+            equal(s.command("integrity crc32c"), "OK crc32c");
+            equal(s.command("upload g.bin"), "OK");
+            prefix(body(s, g, "CRC32C " + hex(crc(g))), "OK");
+            equal(s.command("upload g.bin"), "OK");
+            prefix(body(s, h, "CRC32C " + hex(crc(h) ^ 1)), "ERR Somme de contrôle invalide");
+            equal(s.command("download g.bin"), "OK");
+            check(Arrays.equals(readBody(s), g), "g.bin remplacé malgré un trailer faux");
+            equal(s.read(), "CRC32C " + hex(crc(g)));
+
+            equal(s.command("upload g.bin"), "OK");
+            s.out().writeLong(h.length);
+            s.out().write(h);
+            s.out().writeUTF("MD5 0");
+            s.out().flush();
+            closed(s);
+        }
+        try (Bench.Session s = session(port)) {
+            equal(s.command("download g.bin"), "OK");
+            check(Arrays.equals(readBody(s), g), "g.bin remplacé malgré un trailer illisible");
+        }
+    }
+
+    private static void dedupGc(int port, Path storage) throws Exception {
+        byte[] d = content(1_000_000, 10);
+        try (Bench.Session s = session(port)) {
+            equal(s.command("upload d1.bin"), "OK");
+            prefix(body(s, d, 0, d.length), "OK");
+            prefix(s.command("delete d1.bin"), "OK");
+        }
+        try (Bench.Session s = session(port); Bench.Session gc = session(port)) {
+            equal(s.command("upload d2.bin"), "OK");
+            s.out().writeLong(d.length);
+            s.out().write(d, 0, 600_000);
+            s.out().flush();
+            Thread.sleep(1500);
+            prefix(gc.command("gc"), "OK");
+            long deadline = System.nanoTime() + TIMEOUT_MILLIS * 1_000_000L;
+            while (!gc.command("gc").startsWith("OK")) {
+                if (System.nanoTime() > deadline) throw new AssertionError("nettoyage des blocs sans fin");
+                Thread.sleep(20);
+            }
+            s.out().write(d, 600_000, d.length - 600_000);
+            s.out().flush();
+            prefix(s.read(), "OK");
+            equal(s.command("download d2.bin"), "OK");
+            check(Arrays.equals(readBody(s), d), "d2.bin illisible après le nettoyage des blocs");
+        }
+    }
+
+    private static void unavailable(int port, Path storage) throws Exception {
+        try (Bench.Session s = session(port)) {
+            equal(s.command("integrity crc32c"), UNAVAILABLE);
+            equal(s.command("upload-tree up"), UNAVAILABLE);
+            equal(s.command("download-tree 0 up"), UNAVAILABLE);
+            equal(s.command("mux " + WINDOW), UNAVAILABLE);
+            equal(s.command("stat f.bin"), "OK 200000");
+        }
+    }
+
+    private static void treeRoundTrip(int port, Path storage) throws Exception {
+        byte[] a = content(5000, 5);
+        try (Bench.Session s = session(port)) {
+            equal(s.command("upload-tree up"), "OK");
+            DataOutputStream out = s.out();
+            directory(out, "sub");
+            file(out, "sub/a.bin", a);
+            file(out, "b.bin", new byte[0]);
+            file(out, "../evil.bin", new byte[10]);
+            directory(out, "../evildir");
+            out.writeByte('E');
+            out.flush();
+            String reply = s.read();
+            prefix(reply, "ERR Dossier up partiellement téléversé");
+            check(reply.contains("2 fichiers, 1 dossiers") && reply.contains("2 refusés"), reply);
+            check(!Files.exists(storage.resolve("evil.bin")) && !Files.exists(storage.resolve("evildir")),
+                    "chemin hors de l'arborescence accepté");
+
+            equal(s.command("download-tree 0 up"), "OK");
+            Map<String, byte[]> tree = readTree(s.in());
+            check(tree.keySet().equals(Set.of("D sub", "F sub/a.bin", "F b.bin")), "trames reçues: " + tree.keySet());
+            check(Arrays.equals(tree.get("F sub/a.bin"), a), "sub/a.bin différent");
+            check(tree.get("F b.bin").length == 0, "b.bin non vide");
+
+            equal(s.command("download-tree 1000 up"), "OK");
+            tree = readTree(s.in());
+            check(tree.containsKey("L sub/a.bin") && tree.containsKey("F b.bin"), "trames reçues: " + tree.keySet());
+            equal(s.command("stat up/sub/a.bin"), "OK 5000");
+        }
+    }
+
+    private static void treeTruncated(int port, Path storage) throws Exception {
+        try (Bench.Session s = session(port)) {
+            equal(s.command("upload-tree cut"), "OK");
+            directory(s.out(), "x");
+            s.out().writeByte('F');
+            s.out().writeUTF("x/big.bin");
+            s.out().writeLong(100_000);
+            s.out().write(new byte[1000]);
+            s.out().flush();
+        }
+        Path staging = storage.resolve(".server_tmp");
+        await(() -> empty(staging), "fichier temporaire laissé par l'arborescence tronquée");
+        try (Bench.Session s = session(port)) {
+            equal(s.command("stat cut/x/big.bin"), "ERR Not a file");
+            equal(s.command("upload-tree bad"), "OK");
+            s.out().writeByte('Q');
+            s.out().flush();
+            closed(s);
+        }
+    }
+
+    private static void muxFlowControl(int port, Path storage) throws Exception {
+        byte[] f = Files.readAllBytes(storage.resolve("f.bin"));
+        try (Bench.Session s = session(port)) {
+            equal(s.command("mux " + WINDOW), "OK mux " + WINDOW);
+            MuxLink mux = new MuxLink(s);
+            mux.open(1);
+            mux.send(1, utf("download f.bin"));
+            byte[] first = mux.read(1, WINDOW);
+            check(mux.idle(1, 500), "le serveur a dépassé la fenêtre accordée");
+
+            mux.open(3);
+            mux.send(3, utf("stat f.bin"));
+            equal(mux.readUTF(3), "OK 200000");
+
+            int total = 12 + f.length;
+            mux.grant(1, total - WINDOW);
+            byte[] rest = mux.read(1, total - WINDOW);
+            ByteArrayOutputStream all = new ByteArrayOutputStream(total);
+            all.write(first);
+            all.write(rest);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(all.toByteArray()));
+            equal(in.readUTF(), "OK");
+            check(in.readLong() == f.length, "taille annoncée différente");
+            check(Arrays.equals(in.readAllBytes(), f), "contenu multiplexé différent");
+        }
+    }
+
+    private static void muxSessionRate(int port, Path storage) throws Exception {
+        int total = 12 + (int) Files.size(storage.resolve("f.bin"));
+        try (Bench.Session admin = session(port)) {
+            prefix(admin.command("throttle session 400K"), "OK");
+            try (Bench.Session s = session(port)) {
+                equal(s.command("mux " + WINDOW), "OK mux " + WINDOW);
+                MuxLink mux = new MuxLink(s);
+                long start = System.nanoTime();
+                for (int id : new int[] { 1, 3 }) {
+                    mux.open(id);
+                    mux.send(id, utf("download f.bin"));
+                    mux.grant(id, total - WINDOW);
+                }
+                mux.read(1, total);
+                mux.read(3, total);
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                check(millis >= 800, "débit de session dépassé par les flux (" + millis + " ms)");
+            } finally {
+                prefix(admin.command("throttle session 0"), "OK");
+            }
+        }
+    }
+
+    private static void muxAbort(int port, Path storage) throws Exception {
+        try (Bench.Session s = session(port)) {
+            equal(s.command("mux " + WINDOW), "OK mux " + WINDOW);
+            MuxLink mux = new MuxLink(s);
+            mux.open(1);
+            mux.send(1, utf("download f.bin"));
+            mux.read(1, WINDOW);
+            mux.close(1);
+            mux.awaitClose(1);
+
+            mux.open(3);
+            mux.send(3, utf("stat f.bin"));
+            equal(mux.readUTF(3), "OK 200000");
+
+            mux.open(5);
+            mux.send(5, utf("download f.bin"));
+            mux.read(5, WINDOW);
+            mux.send(5, new byte[WINDOW]);
+            mux.send(5, new byte[1]);
+            mux.awaitDisconnect();
+        }
+    }
+
+    private static Bench.Session session(int port) throws IOException {
+        Bench.Session s = new Bench.Session(port);
+        s.timeout(TIMEOUT_MILLIS);
+        return s;
+    }
+
+    private static String body(Bench.Session s, byte[] data, int off, int len) throws IOException {
+        s.out().writeLong(len);
+        s.out().write(data, off, len);
+        s.out().flush();
+        return s.read();
+    }
+
+    private static String body(Bench.Session s, byte[] data, String trailer) throws IOException {
+        s.out().writeLong(data.length);
+        s.out().write(data);
+        s.out().writeUTF(trailer);
+        s.out().flush();
+        return s.read();
+    }
+
+    private static byte[] readBody(Bench.Session s) throws IOException {
+        long size = s.in().readLong();
+        byte[] data = new byte[(int) size];
+        s.in().readFully(data);
+        return data;
+    }
+
+    private static void directory(DataOutputStream out, String name) throws IOException {
+        out.writeByte('D');
+        out.writeUTF(name);
+    }
+
+    private static void file(DataOutputStream out, String name, byte[] data) throws IOException {
+        out.writeByte('F');
+        out.writeUTF(name);
+        out.writeLong(data.length);
+        out.write(data);
+    }
+
+    private static Map<String, byte[]> readTree(DataInputStream in) throws IOException {
+        Map<String, byte[]> tree = new HashMap<>();
+        while (true) {
+            byte op = in.readByte();
+            if (op == 'E') return tree;
+            String name = in.readUTF();
+            if (op == 'D') {
+                tree.put("D " + name, null);
+            } else if (op == 'L') {
+                in.readLong();
+                tree.put("L " + name, new byte[0]);
+            } else if (op == 'F') {
+                byte[] data = new byte[(int) in.readLong()];
+                in.readFully(data);
+                tree.put("F " + name, data);
+            } else {
+                throw new AssertionError("trame d'arborescence inconnue: " + op);
+            }
+        }
+    }
+
+    private static void closed(Bench.Session s) throws IOException {
+        try {
+            String reply = s.read();
+            throw new AssertionError("session toujours ouverte, réponse: " + reply);
+        } catch (EOFException | SocketException e) {
+            // attendu: le serveur a fermé la session
+        }
+    }
+
+    private static boolean empty(Path dir) {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.noneMatch(Files::isRegularFile);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT_MILLIS * 1_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) throw new AssertionError(message);
+            Thread.sleep(20);
+        }
+    }
+
+    private static byte[] content(int size, long seed) {
+        byte[] data = new byte[size];
+        new SplittableRandom(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] utf(String s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(s);
+        return bytes.toByteArray();
+    }
+
+    private static long crc(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static String hex(long value) {
+        return String.format(Locale.ROOT, "%08x", value);
+    }
+
+    private static void equal(Object actual, Object expected) {
+        if (!expected.equals(actual)) throw new AssertionError("attendu \"" + expected + "\", reçu \"" + actual + "\"");
+    }
+
+    private static void prefix(String actual, String expected) {
+        if (!actual.startsWith(expected)) throw new AssertionError("attendu \"" + expected + "…\", reçu \"" + actual + "\"");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    private static final class MuxLink {
+        private static final byte OPEN = 1;
+        private static final byte DATA = 2;
+        private static final byte WINDOW = 3;
+        private static final byte CLOSE = 4;
+
+        private final Bench.Session session;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final Map<Integer, ByteArrayOutputStream> received = new HashMap<>();
+        private final Set<Integer> closed = new HashSet<>();
+
+        MuxLink(Bench.Session session) {
+            this.session = session;
+            this.in = session.in();
+            this.out = session.out();
+        }
+
+        void open(int id) throws IOException {
+            frame(id, OPEN, new byte[4]);
+        }
+
+        void send(int id, byte[] payload) throws IOException {
+            frame(id, DATA, payload);
+        }
+
+        void grant(int id, int bytes) throws IOException {
+            frame(id, WINDOW, new byte[] { (byte) (bytes >>> 24), (byte) (bytes >>> 16), (byte) (bytes >>> 8), (byte) bytes });
+        }
+
+        void close(int id) throws IOException {
+            frame(id, CLOSE, new byte[0]);
+        }
+
+        byte[] read(int id, int n) throws IOException {
+            ByteArrayOutputStream buffer = received.computeIfAbsent(id, k -> new ByteArrayOutputStream());
+            while (buffer.size() < n) {
+                if (closed.contains(id)) throw new EOFException("flux " + id + " fermé après " + buffer.size() + " octets");
+                next();
+            }
+            byte[] all = buffer.toByteArray();
+            buffer.reset();
+            buffer.write(all, n, all.length - n);
+            return Arrays.copyOf(all, n);
+        }
+
+        String readUTF(int id) throws IOException {
+            byte[] length = read(id, 2);
+            return new String(read(id, (length[0] & 0xFF) << 8 | (length[1] & 0xFF)), "UTF-8");
+        }
+
+        boolean idle(int id, int millis) throws IOException {
+            ByteArrayOutputStream buffer = received.computeIfAbsent(id, k -> new ByteArrayOutputStream());
+            session.timeout(millis);
+            try {
+                while (buffer.size() == 0) {
+                    next();
+                }
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                session.timeout(TIMEOUT_MILLIS);
+            }
+        }
+
+        void awaitClose(int id) throws IOException {
+            while (!closed.contains(id)) {
+                next();
+            }
+        }
+
+        void awaitDisconnect() throws IOException {
+            try {
+                while (true) {
+                    next();
+                }
+            } catch (EOFException | SocketException e) {
+                // attendu: le serveur a coupé la connexion multiplexée
+            }
+        }
+
+        private void frame(int id, byte type, byte[] payload) throws IOException {
+            out.writeInt(id);
+            out.writeByte(type);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+        }
+
+        private void next() throws IOException {
+            int id = in.readInt();
+            byte type = in.readByte();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            if (type == DATA) {
+                received.computeIfAbsent(id, k -> new ByteArrayOutputStream()).write(payload);
+            } else if (type == CLOSE) {
+                closed.add(id);
+            }
+        }
+    }
+}
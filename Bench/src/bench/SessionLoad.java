@@ -0,0 +1,85 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class SessionLoad {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int commands = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 5050;
+        String[] modes = args.length > 3 ? args[3].split(",") : new String[] { "platform", "virtual", "pool", "nio" };
+
+        System.out.printf("%d sessions, %d commandes%n", sessions, commands);
+        System.out.printf("%-10s %14s %10s %10s %10s%n", "mode", "RSS/session", "p50 (us)", "p99 (us)", "max (us)");
+        for (String mode : modes) {
+            run(mode.trim(), sessions, commands, port);
+        }
+    }
+
+    private static void run(String mode, int sessions, int commands, int port) throws Exception {
+        Path workDir = Files.createTempDirectory("bench-sessions");
+        Process server = Bench.startServer(workDir, port, "-Dserver.mode=" + mode,
+                "-Dserver.maxSessions=" + (sessions + 16), "-Dserver.poolThreads=" + (sessions + 16));
+        List<Bench.Session> conns = new ArrayList<>();
+        try {
+            long baseline = Bench.rssKb(server.pid());
+            for (int i = 0; i < sessions; i++) {
+                conns.add(new Bench.Session(port));
+            }
+            for (Bench.Session c : conns) {
+                c.command("cd .");
+            }
+            Thread.sleep(500);
+            long loaded = Bench.rssKb(server.pid());
+
+            int drivers = Math.min(32, sessions);
+            long[] latencies = new long[commands];
+            Thread[] threads = new Thread[drivers];
+            for (int d = 0; d < drivers; d++) {
+                final int id = d;
+                threads[d] = new Thread(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    for (int i = id; i < commands; i += drivers) {
+                        Bench.Session c = conns.get(rnd.nextInt(sessions));
+                        long t0 = System.nanoTime();
+                        try {
+                            c.command("ls");
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                        latencies[i] = System.nanoTime() - t0;
+                    }
+                });
+                threads[d].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            Arrays.sort(latencies);
+            String perSession = baseline > 0 && loaded > 0
+                    ? String.format("%.1f KiB", (loaded - baseline) / (double) sessions)
+                    : "n/a";
+            System.out.printf("%-10s %14s %10d %10d %10d%n", mode, perSession,
+                    percentile(latencies, 0.50) / 1000, percentile(latencies, 0.99) / 1000,
+                    latencies[latencies.length - 1] / 1000);
+        } finally {
+            for (Bench.Session c : conns) {
+                c.close();
+            }
+            server.destroy();
+            server.waitFor();
+            Bench.deleteTree(workDir);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+    }
+}
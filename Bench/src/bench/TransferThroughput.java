@@ -0,0 +1,80 @@
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class TransferThroughput {
+
+    public static void main(String[] args) throws Exception {
+        long[] sizes = args.length > 0 ? parseSizes(args[0]) : new long[] { 4 << 10, 1 << 20, 64 << 20 };
+        long[] buffers = args.length > 1 ? parseSizes(args[1]) : new long[] { 8 << 10, 64 << 10, 1 << 20 };
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 5046;
+        String[] zeroCopy = args.length > 3 ? args[3].split(",") : new String[] { "true", "false" };
+
+        System.out.printf("%-10s %-6s %10s %10s %32s%n", "zeroCopy", "op", "fichier", "tampon", "débit");
+        for (String mode : zeroCopy) {
+            run(Boolean.parseBoolean(mode.trim()), sizes, buffers, port);
+        }
+    }
+
+    private static void run(boolean zeroCopy, long[] sizes, long[] buffers, int port) throws Exception {
+        Path workDir = Files.createTempDirectory("bench-transfer");
+        Path storage = Files.createDirectories(workDir.resolve("server_storage"));
+        for (long size : sizes) {
+            fill(storage.resolve("f" + size), size);
+        }
+        Process server = Bench.startServer(workDir, port, "-Dserver.zeroCopy=" + zeroCopy);
+        try (Bench.Session session = new Bench.Session(port)) {
+            for (long size : sizes) {
+                for (long bufferSize : buffers) {
+                    byte[] buffer = new byte[(int) bufferSize];
+                    new Random(7).nextBytes(buffer);
+                    String name = "f" + size;
+                    Harness.Result down = Harness.throughput(() -> session.download(name, buffer), 1024 * 1024);
+                    print(zeroCopy, "down", size, bufferSize, down);
+                    Harness.Result up = Harness.throughput(() -> session.upload("u" + size, size, buffer), 1024 * 1024);
+                    print(zeroCopy, "up", size, bufferSize, up);
+                }
+            }
+        } finally {
+            server.destroy();
+            server.waitFor();
+            Bench.deleteTree(workDir);
+        }
+    }
+
+    private static void print(boolean zeroCopy, String op, long size, long buffer, Harness.Result r) {
+        System.out.printf("%-10s %-6s %10s %10s %s  (%d ops)%n", zeroCopy, op, human(size), human(buffer),
+                r.format("MiB/s"), r.ops());
+    }
+
+    static long[] parseSizes(String arg) {
+        String[] parts = arg.split(",");
+        long[] sizes = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String p = parts[i].trim().toUpperCase();
+            long unit = p.endsWith("K") ? 1 << 10 : p.endsWith("M") ? 1 << 20 : p.endsWith("G") ? 1 << 30 : 1;
+            sizes[i] = Long.parseLong(unit == 1 ? p : p.substring(0, p.length() - 1)) * unit;
+        }
+        return sizes;
+    }
+
+    private static String human(long size) {
+        if (size >= 1 << 20 && size % (1 << 20) == 0) return size / (1 << 20) + "M";
+        if (size >= 1 << 10 && size % (1 << 10) == 0) return size / (1 << 10) + "K";
+        return Long.toString(size);
+    }
+
+    private static void fill(Path file, long size) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        new Random(42).nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += chunk.length) {
+                out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+    }
+}
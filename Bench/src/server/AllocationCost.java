@@ -0,0 +1,87 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+public class AllocationCost {
+
+    private interface Op {
+        long run() throws IOException;
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        long iterations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        String line = "download  dossier/fichier.txt 1048576";
+        DataOutputStream out = new DataOutputStream(OutputStream.nullOutputStream());
+        ByteArrayInputStream small = new ByteArrayInputStream(new byte[4096]);
+        Object[][] cases = {
+            { "commande", "regex", (Op) () -> line.split("\\s+", 3).length },
+            { "commande", "scan", (Op) () -> ClientHandler.words(line, 3).length },
+            { "réponse", "writeUTF", (Op) () -> {
+                out.writeUTF("OK");
+                return out.size();
+            } },
+            { "réponse", "constante", (Op) () -> {
+                out.write(Replies.OK);
+                return out.size();
+            } },
+            { "tampon", "new byte[]", (Op) () -> {
+                small.reset();
+                return legacyCopy(small, OutputStream.nullOutputStream(), 4096);
+            } },
+            { "tampon", "pool", (Op) () -> {
+                small.reset();
+                FileTransfer.copy(small, OutputStream.nullOutputStream(), 4096);
+                return 4096;
+            } },
+        };
+        System.out.printf("%-10s %-12s %12s %12s%n", "cas", "variante", "ns/op", "octets/op");
+        for (Object[] c : cases) {
+            Op op = (Op) c[2];
+            for (int warm = 0; warm < 3; warm++) {
+                measure(op, iterations / 4);
+            }
+            double bestTime = Double.MAX_VALUE;
+            double bestBytes = Double.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                double[] r = measure(op, iterations);
+                bestTime = Math.min(bestTime, r[0]);
+                bestBytes = Math.min(bestBytes, r[1]);
+            }
+            System.out.printf(Locale.ROOT, "%-10s %-12s %12.1f %12.1f%n", c[0], c[1], bestTime, bestBytes);
+        }
+    }
+
+    private static double[] measure(Op op, long iterations) throws IOException {
+        long sink = 0;
+        long a0 = THREADS.getCurrentThreadAllocatedBytes();
+        long t0 = System.nanoTime();
+        for (long i = 0; i < iterations; i++) {
+            sink += op.run();
+        }
+        long elapsed = System.nanoTime() - t0;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - a0;
+        if (sink == 42) System.out.print("");
+        return new double[] { elapsed / (double) iterations, allocated / (double) iterations };
+    }
+
+    private static long legacyCopy(InputStream in, OutputStream out, long count) throws IOException {
+        byte[] buffer = new byte[FileTransfer.BUFFER_SIZE];
+        long remaining = count;
+        while (remaining > 0) {
+            int r = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (r == -1) throw new IOException("Stream ended prematurely");
+            out.write(buffer, 0, r);
+            remaining -= r;
+        }
+        return count;
+    }
+}
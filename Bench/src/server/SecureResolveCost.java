@@ -0,0 +1,52 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+public class SecureResolveCost {
+
+    public static void main(String[] args) throws Exception {
+        long iterations = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000;
+        Path base = Files.createTempDirectory("bench-resolve").toRealPath();
+        try {
+            Path current = base.resolve("a/b/c");
+            String[][] cases = {
+                { "simple", "fichier.txt" },
+                { "imbriqué", "x/y/z/fichier.txt" },
+                { "normalisé", "x/./y/../fichier.txt" },
+                { "remontée", "../../d/e/../fichier.txt" },
+                { "refusé", "../../../../etc/passwd" },
+            };
+            System.out.printf("%-10s %12s%n", "cas", "ns/op");
+            for (String[] c : cases) {
+                for (int warm = 0; warm < 3; warm++) {
+                    measure(base, current, c[1], iterations / 4);
+                }
+                double best = Double.MAX_VALUE;
+                for (int round = 0; round < 5; round++) {
+                    best = Math.min(best, measure(base, current, c[1], iterations));
+                }
+                System.out.printf(Locale.ROOT, "%-10s %12.1f%n", c[0], best);
+            }
+        } finally {
+            Files.deleteIfExists(base);
+        }
+    }
+
+    private static double measure(Path base, Path current, String userPath, long iterations) {
+        long sink = 0;
+        long t0 = System.nanoTime();
+        for (long i = 0; i < iterations; i++) {
+            try {
+                sink += ClientHandler.secureResolve(base, current, userPath).getNameCount();
+            } catch (IOException e) {
+                sink--;
+            }
+        }
+        long elapsed = System.nanoTime() - t0;
+        if (sink == 42) System.out.print("");
+        return elapsed / (double) iterations;
+    }
+}
@@ -0,0 +1,21 @@
+package client;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+final class BufferPool {
+    static final int SIZE = 64 * 1024;
+
+    private static final ArrayBlockingQueue<byte[]> ARRAYS =
+            new ArrayBlockingQueue<>(Integer.getInteger("client.bufferPool", 32));
+
+    private BufferPool() {}
+
+    static byte[] array() {
+        byte[] b = ARRAYS.poll();
+        return b != null ? b : new byte[SIZE];
+    }
+
+    static void release(byte[] b) {
+        if (b != null && b.length == SIZE) ARRAYS.offer(b);
+    }
+}
@@ -1,24 +1,90 @@
 package client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
 
 public class Client {
     private static final int MIN_PORT = 5000;
     private static final int MAX_PORT = 5050;
+    private static final int LS_PAGE_SIZE = 1000;
+    private static final long DELTA_MIN_SIZE = 1024 * 1024;
+    private static final int BATCH_SIZE = 10_000;
+    private static final int PIPELINE_WINDOW = 256;
+    private static final byte TREE_DIRECTORY = 'D';
+    private static final byte TREE_FILE = 'F';
+    private static final byte TREE_LARGE = 'L';
+    private static final byte TREE_END = 'E';
+    private static final int MUX_WINDOW = Integer.getInteger("client.muxWindow", 256 * 1024);
+    private static final String TRAILER = "CRC32C ";
+    private static final Set<String> SCRIPT_COMMANDS = Set.of("cd", "mkdir", "delete", "stat");
     private Socket socket;
     private DataInputStream in;
     private DataOutputStream out;
     private BufferedReader userInput;
+    private String serverAddress;
+    private int serverPort;
+    private int streams = Integer.getInteger("client.streams", 4);
+    private long chunkSize = Long.getLong("client.chunkSize", 8L * 1024 * 1024);
+    private boolean delta = Boolean.parseBoolean(System.getProperty("client.delta", "true"));
+    private final String compression = System.getProperty("client.compression", Compression.DEFLATE);
+    private boolean compress;
+    private final String integrityAlgorithm = System.getProperty("client.integrity", "crc32c");
+    private boolean integrity;
+    private final boolean multiplex = Boolean.parseBoolean(System.getProperty("client.mux", "true"));
+    private Mux mux;
+    private Mux.Stream stream;
+    private final Map<Integer, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger jobIds = new AtomicInteger();
+
+    private record Job(String command, Thread thread) {}
+
+    public Client() {
+    }
+
+    private Client(Client session, Mux.Stream stream) {
+        this.serverAddress = session.serverAddress;
+        this.serverPort = session.serverPort;
+        this.streams = session.streams;
+        this.chunkSize = session.chunkSize;
+        this.delta = session.delta;
+        this.compress = session.compress;
+        this.integrity = session.integrity;
+        this.stream = stream;
+        this.in = new DataInputStream(stream.input);
+        this.out = new DataOutputStream(stream.output);
+    }
 
     public static void main(String[] args) {
         Client client = new Client();
@@ -57,13 +123,18 @@ public class Client {
                 }
             }
             
+            this.serverAddress = serverAddress;
+            this.serverPort = port;
             socket = new Socket(serverAddress, port);
-            in = new DataInputStream(socket.getInputStream());
-            out = new DataOutputStream(socket.getOutputStream());
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
             userInput = new BufferedReader(new InputStreamReader(System.in));
             
             String response = in.readUTF();
             System.out.println(response);
+            negotiateCompression();
+            negotiateIntegrity();
+            negotiateMux();
             
             commandLoop();
             
@@ -71,6 +142,7 @@ public class Client {
             System.err.println("Erreur: " + e.getMessage());
         } finally {
             try {
+                if (mux != null) mux.shutdown();
                 if (socket != null) socket.close();
             } catch (IOException e) {
                 System.err.println("Erreur lors de la fermeture: " + e.getMessage());
@@ -78,6 +150,42 @@ public class Client {
         }
     }
 
+    private void negotiateCompression() throws IOException {
+        if (compression.equals(Compression.NONE)) {
+            return;
+        }
+        out.writeUTF("compress " + compression);
+        out.flush();
+        String response = in.readUTF();
+        compress = response.startsWith("OK ") && !response.substring(3).trim().equals(Compression.NONE);
+    }
+
+    private void negotiateIntegrity() throws IOException {
+        if (integrityAlgorithm.equals("none")) {
+            return;
+        }
+        out.writeUTF("integrity " + integrityAlgorithm);
+        out.flush();
+        String response = in.readUTF();
+        integrity = response.startsWith("OK ") && response.substring(3).trim().equals("crc32c");
+    }
+
+    private void negotiateMux() throws IOException {
+        if (!multiplex) {
+            return;
+        }
+        out.writeUTF("mux " + MUX_WINDOW);
+        out.flush();
+        String response = in.readUTF();
+        if (!response.startsWith("OK mux ")) {
+            return;
+        }
+        mux = new Mux(in, out, Integer.parseInt(response.substring(7).trim()));
+        stream = mux.open(null);
+        in = new DataInputStream(stream.input);
+        out = new DataOutputStream(stream.output);
+    }
+
     private void commandLoop() throws IOException {
         while (true) {
             System.out.print("> ");
@@ -86,6 +194,11 @@ public class Client {
                 continue;
             }
             
+            if (input.trim().endsWith("&")) {
+                background(input.trim().substring(0, input.trim().length() - 1).trim());
+                continue;
+            }
+            
             String[] parts = input.trim().split("\\s+", 2);
             String cmd = parts[0].toLowerCase();
             String arg = (parts.length > 1) ? parts[1].trim() : "";
@@ -98,6 +211,15 @@ public class Client {
                     case "cd":
                         handleCd(input, arg);
                         break;
+                    case "find":
+                        handleFind(arg);
+                        break;
+                    case "checksum":
+                        handleChecksum(arg);
+                        break;
+                    case "du":
+                        handleDu(arg);
+                        break;
                     case "mkdir":
                         handleMkdir(input, arg);
                         break;
@@ -105,10 +227,35 @@ public class Client {
                         handleDelete(input, arg);
                         break;
                     case "upload":
-                        handleUpload(input, arg);
+                        if (arg.startsWith("-r ")) {
+                            handleUploadTree(arg.substring(3).trim());
+                        } else {
+                            handleUpload(input, arg);
+                        }
                         break;
                     case "download":
-                        handleDownload(input, arg);
+                        if (arg.startsWith("-r ")) {
+                            handleDownloadTree(arg.substring(3).trim());
+                        } else {
+                            handleDownload(input, arg);
+                        }
+                        break;
+                    case "batch":
+                        handleBatch(arg);
+                        break;
+                    case "pipeline":
+                        handlePipeline(arg);
+                        break;
+                    case "stats":
+                    case "storagestats":
+                    case "throttle":
+                        handleStats(input);
+                        break;
+                    case "set":
+                        handleSet(arg);
+                        break;
+                    case "jobs":
+                        handleJobs();
                         break;
                     case "exit":
                         handleExit(input);
@@ -123,11 +270,180 @@ public class Client {
         }
     }
 
-    private void handleLs(String input) throws IOException {
-        out.writeUTF(input);
+    private void background(String line) throws IOException {
+        String[] parts = line.split("\\s+", 2);
+        String cmd = parts[0].toLowerCase();
+        String arg = parts.length > 1 ? parts[1].trim() : "";
+        if ((!cmd.equals("upload") && !cmd.equals("download")) || arg.isEmpty()) {
+            System.out.println("Usage: upload|download [-r] <nom> &");
+            return;
+        }
+        if (mux == null) {
+            System.out.println("Transferts en arrière-plan indisponibles: multiplexage désactivé ou non géré par le serveur");
+            return;
+        }
+        Mux.Stream channel = mux.open(stream);
+        Client job = new Client(this, channel);
+        int id = jobIds.incrementAndGet();
+        Thread thread = new Thread(() -> {
+            try {
+                if (cmd.equals("upload") && arg.startsWith("-r ")) {
+                    job.handleUploadTree(arg.substring(3).trim());
+                } else if (cmd.equals("upload")) {
+                    job.handleUpload(line, arg);
+                } else if (arg.startsWith("-r ")) {
+                    job.handleDownloadTree(arg.substring(3).trim());
+                } else {
+                    job.handleDownload(line, arg);
+                }
+            } catch (IOException e) {
+                System.err.println("[" + id + "] Erreur: " + e.getMessage());
+            } finally {
+                channel.close();
+                jobs.remove(id);
+                System.out.println("[" + id + "] Terminé: " + line);
+            }
+        }, "transfer-" + id);
+        thread.setDaemon(true);
+        jobs.put(id, new Job(line, thread));
+        System.out.println("[" + id + "] " + line);
+        thread.start();
+    }
+
+    private void handleJobs() {
+        if (jobs.isEmpty()) {
+            System.out.println("Aucun transfert en arrière-plan");
+            return;
+        }
+        new TreeMap<>(jobs).forEach((id, job) -> System.out.println("[" + id + "] " + job.command()));
+    }
+
+    private void handleFind(String pattern) throws IOException {
+        if (pattern.isEmpty() || pattern.contains(" ")) {
+            System.out.println("Usage: find <motif> (utilisez ? pour les espaces)");
+            return;
+        }
+        long token = 0;
+        long found = 0;
+        while (true) {
+            out.writeUTF("find " + pattern + " " + LS_PAGE_SIZE + " " + token);
+            out.flush();
+            String response = in.readUTF();
+            if (!response.equals("OK")) {
+                System.out.println(response);
+                return;
+            }
+            String frame;
+            while ((frame = in.readUTF()).startsWith("[")) {
+                System.out.print(frame);
+                found += frame.chars().filter(c -> c == '\n').count();
+            }
+            if (!frame.startsWith("MORE ")) {
+                System.out.println(found + " résultat(s)");
+                return;
+            }
+            token = Long.parseLong(frame.substring(5).trim());
+        }
+    }
+
+    private void handleChecksum(String filename) throws IOException {
+        if (filename.isEmpty()) {
+            System.out.println("Usage: checksum <filename>");
+            return;
+        }
+        out.writeUTF("checksum " + filename);
+        out.flush();
+        String response = in.readUTF();
+        if (!response.startsWith("OK ")) {
+            System.out.println(response);
+            return;
+        }
+        String[] parts = response.substring(3).trim().split("\\s+");
+        if (parts.length != 3) {
+            System.out.println(response);
+            return;
+        }
+        Path local = Paths.get(filename);
+        String comparison = "";
+        if (Files.isRegularFile(local) && Files.size(local) == Long.parseLong(parts[2])) {
+            CRC32C crc = new CRC32C();
+            byte[] buffer = BufferPool.array();
+            try (FileChannel fc = FileChannel.open(local, StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.wrap(buffer);
+                int r;
+                while ((r = fc.read(buf.clear())) != -1) {
+                    crc.update(buffer, 0, r);
+                }
+            } finally {
+                BufferPool.release(buffer);
+            }
+            comparison = hex(crc.getValue()).equals(parts[1]) ? ", identique au fichier local" : ", DIFFÉRENT du fichier local";
+        } else if (Files.isRegularFile(local)) {
+            comparison = ", taille différente du fichier local";
+        }
+        System.out.println(parts[0] + " " + parts[1] + " (" + parts[2] + " octets" + comparison + ")");
+    }
+
+    private void handleDu(String dir) throws IOException {
+        out.writeUTF(dir.isEmpty() ? "du" : "du " + dir);
         out.flush();
         String response = in.readUTF();
-        System.out.println(response);
+        String[] parts = response.startsWith("OK ") ? response.substring(3).trim().split("\\s+") : new String[0];
+        if (parts.length != 4) {
+            System.out.println(response);
+            return;
+        }
+        String quota = "";
+        if (!parts[3].equals("-")) {
+            long limit = Long.parseLong(parts[3]);
+            quota = String.format(", quota %s octets (%.1f%%)", parts[3], Long.parseLong(parts[0]) * 100.0 / limit);
+        }
+        System.out.println((dir.isEmpty() ? "." : dir) + ": " + parts[0] + " octets, " + parts[1] + " fichiers, "
+                + parts[2] + " dossiers" + quota);
+    }
+
+    private static String hex(long value) {
+        return String.format("%08x", value);
+    }
+
+    private static long parseTrailer(String line) throws IOException {
+        if (!line.startsWith(TRAILER)) throw new IOException("Trame de contrôle invalide: " + line);
+        try {
+            return Long.parseLong(line.substring(TRAILER.length()).trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Trame de contrôle invalide: " + line);
+        }
+    }
+
+    private void handleLs(String input) throws IOException {
+        long token = 0;
+        while (true) {
+            out.writeUTF("list " + LS_PAGE_SIZE + " " + token);
+            out.flush();
+            String response = in.readUTF();
+            if (response.equals("ERR Unknown command")) {
+                out.writeUTF(input);
+                out.flush();
+                System.out.println(in.readUTF());
+                return;
+            }
+            if (!response.equals("OK")) {
+                System.out.println(response);
+                return;
+            }
+            if (token == 0) {
+                System.out.println("OK");
+            }
+            String frame;
+            while ((frame = in.readUTF()).startsWith("[")) {
+                System.out.print(frame);
+            }
+            System.out.flush();
+            if (!frame.startsWith("MORE ")) {
+                return;
+            }
+            token = Long.parseLong(frame.substring(5).trim());
+        }
     }
 
     private void handleCd(String input, String arg) throws IOException {
@@ -162,12 +478,18 @@ public class Client {
 
     private void handleDelete(String input, String arg) throws IOException {
         if (arg.isEmpty()) {
-            System.out.println("Usage: delete <file|dir>");
+            System.out.println("Usage: delete [-p] [-a] <file|dir>");
             return;
         }
         out.writeUTF(input);
         out.flush();
         String response = in.readUTF();
+        while (response.startsWith("PROGRESS ")) {
+            System.out.print("\r" + response.substring(9) + " éléments supprimés...");
+            System.out.flush();
+            response = in.readUTF();
+            if (!response.startsWith("PROGRESS ")) System.out.println();
+        }
         if (response.startsWith("OK")) {
             System.out.println(response.substring(3));
         } else {
@@ -186,24 +508,64 @@ public class Client {
             System.out.println("Fichier non trouvé ou n'est pas un fichier");
             return;
         }
+        long fileSize = file.length();
+        String identity = fileSize + "-" + file.lastModified();
         
-        out.writeUTF(input);
+        long offset = 0;
+        out.writeUTF("stat " + filename + ".part");
+        out.flush();
+        String stat = in.readUTF();
+        if (stat.startsWith("OK ")) {
+            long partial = Long.parseLong(stat.substring(3).trim());
+            if (partial <= fileSize) {
+                offset = partial;
+            }
+        }
+        if (offset == 0 && delta && fileSize >= DELTA_MIN_SIZE && deltaUpload(file.toPath(), filename, fileSize)) {
+            return;
+        }
+        if (offset == 0 && isParallel(fileSize)) {
+            parallelUpload(file.toPath(), filename, fileSize);
+            return;
+        }
+        
+        out.writeUTF("resume-upload -i " + identity + " " + offset + " " + filename);
         out.flush();
         String response = in.readUTF();
+        if (response.equals("ERR Invalid offset") && offset > 0) {
+            System.out.println("Le fichier local a changé depuis le dernier essai, téléversement depuis le début");
+            offset = 0;
+            out.writeUTF("resume-upload -i " + identity + " 0 " + filename);
+            out.flush();
+            response = in.readUTF();
+        }
         
         if (response.startsWith("OK")) {
-            long fileSize = file.length();
-            out.writeLong(fileSize);
-            out.flush();
-            
-            try (var fis = Files.newInputStream(file.toPath())) {
-                fis.transferTo(out);
+            if (offset > 0) {
+                System.out.println("Reprise du téléversement à l'octet " + offset + " / " + fileSize);
+            }
+            out.writeLong(fileSize - offset);
+            Compression.Stats stats = null;
+            CRC32C crc = integrity ? new CRC32C() : null;
+            try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (!compress) {
+                    sendRange(fc, offset, fileSize - offset, out, crc);
+                } else if (Compression.worthCompressing(file.getName(), fc, offset, fileSize - offset)) {
+                    out.writeByte(Compression.FRAMED);
+                    stats = Compression.send(fc, offset, fileSize - offset, out, crc);
+                } else {
+                    out.writeByte(Compression.RAW);
+                    sendRange(fc, offset, fileSize - offset, out, crc);
+                }
+            }
+            if (crc != null) {
+                out.writeUTF(TRAILER + hex(crc.getValue()));
             }
             out.flush();
             
             String confirmResponse = in.readUTF();
             if (confirmResponse.startsWith("OK")) {
-                System.out.println(confirmResponse.substring(3));
+                System.out.println(confirmResponse.substring(3) + (stats != null ? " (" + stats.describe() + ")" : ""));
             } else {
                 System.out.println(confirmResponse);
             }
@@ -212,38 +574,538 @@ public class Client {
         }
     }
 
+    private boolean deltaUpload(Path local, String filename, long fileSize) throws IOException {
+        int blockSize = (int) Math.max(512, Math.min(1024 * 1024, Long.highestOneBit((long) Math.sqrt(fileSize) * 16)));
+        out.writeUTF("signature " + blockSize + " " + filename);
+        out.flush();
+        String response = in.readUTF();
+        if (!response.startsWith("OK ")) {
+            return false;
+        }
+        String version = response.substring(3).trim();
+        DeltaEncoder encoder = DeltaEncoder.readSignature(in);
+
+        out.writeUTF("delta " + version + " " + blockSize + " " + filename);
+        out.flush();
+        response = in.readUTF();
+        if (!response.startsWith("OK")) {
+            return false;
+        }
+        try (FileChannel fc = FileChannel.open(local, StandardOpenOption.READ)) {
+            encoder.encode(fc, out);
+        }
+        String confirmResponse = in.readUTF();
+        if (confirmResponse.startsWith("OK")) {
+            System.out.println(confirmResponse.substring(3));
+        } else {
+            System.out.println(confirmResponse);
+        }
+        return true;
+    }
+
     private void handleDownload(String input, String filename) throws IOException {
         if (filename.isEmpty()) {
             System.out.println("Usage: download <filename>");
             return;
         }
         
-        out.writeUTF(input);
+        Path dest = Paths.get(filename);
+        Path part = Paths.get(filename + ".part");
+        Path marker = Paths.get(filename + ".part.id");
+        long offset = Files.exists(part) ? Files.size(part) : 0;
+        String identity = offset > 0 && Files.exists(marker) ? Files.readString(marker).trim() : "-";
+        
+        if (offset == 0 && streams > 1) {
+            out.writeUTF("stat " + filename);
+            out.flush();
+            String stat = in.readUTF();
+            if (stat.startsWith("OK ")) {
+                long size = Long.parseLong(stat.substring(3).trim());
+                if (isParallel(size)) {
+                    parallelDownload(filename, size);
+                    return;
+                }
+            }
+        }
+        
+        out.writeUTF("resume-download -i " + identity + " " + offset + " " + filename);
         out.flush();
         String response = in.readUTF();
+        if (response.equals("ERR Invalid offset")) {
+            offset = 0;
+            out.writeUTF("resume-download -i - 0 " + filename);
+            out.flush();
+            response = in.readUTF();
+        }
         
         if (response.startsWith("OK")) {
-            long fileSize = in.readLong();
-            Path dest = Paths.get(filename);
-            
-            try (var fos = Files.newOutputStream(dest, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-                long remaining = fileSize;
-                byte[] buf = new byte[64 * 1024];
-                while (remaining > 0) {
-                    int toRead = (int) Math.min(buf.length, remaining);
-                    int r = in.read(buf, 0, toRead);
-                    if (r == -1) throw new IOException("Stream ended prematurely");
-                    fos.write(buf, 0, r);
-                    remaining -= r;
+            Files.writeString(marker, response.substring(2).trim());
+            long remaining = in.readLong();
+            if (offset > 0) {
+                System.out.println("Reprise du téléchargement à l'octet " + offset);
+            }
+            Compression.FramedInputStream framed = null;
+            if (compress && in.readByte() == Compression.FRAMED) {
+                framed = Compression.framedInput(in);
+            }
+            CRC32C crc = integrity ? new CRC32C() : null;
+            try (FileChannel fc = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                fc.truncate(offset);
+                receiveRange(framed != null ? new DataInputStream(framed) : in, fc, offset, remaining, crc);
+                if (crc != null) {
+                    long expected = parseTrailer(in.readUTF());
+                    if (expected != crc.getValue()) {
+                        fc.truncate(offset);
+                        System.out.println("ERR Somme de contrôle invalide (attendue " + hex(expected) + ", reçue "
+                                + hex(crc.getValue()) + "), relancez le téléchargement");
+                        return;
+                    }
                 }
+            } finally {
+                if (framed != null) framed.close();
             }
-            System.out.println("Le fichier " + filename + " a bien été téléchargé");
+            Files.move(part, dest, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(marker);
+            System.out.println("Le fichier " + filename + " a bien été téléchargé"
+                    + (framed != null ? " (" + framed.stats().describe() + ")" : ""));
+        } else {
+            System.out.println(response);
+        }
+    }
+
+    private boolean isParallel(long size) {
+        return streams > 1 && size >= 2 * chunkSize;
+    }
+
+    private void parallelDownload(String filename, long size) throws IOException {
+        Path dest = Paths.get(filename);
+        Path part = Paths.get(filename + ".part");
+        long chunks = (size + chunkSize - 1) / chunkSize;
+        AtomicLong next = new AtomicLong();
+        AtomicLong received = new AtomicLong();
+        long start = System.nanoTime();
+        
+        try (FileChannel fc = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            fc.write(ByteBuffer.allocate(1), size - 1);
+            runWorkers((int) Math.min(streams, chunks), conn -> {
+                long i;
+                while ((i = next.getAndIncrement()) < chunks) {
+                    long off = i * chunkSize;
+                    long len = Math.min(chunkSize, size - off);
+                    String response = conn.command("download-range " + off + " " + len + " " + filename);
+                    if (!response.startsWith("OK")) throw new IOException(response);
+                    if (conn.in.readLong() != len) throw new IOException("Plage inattendue à l'octet " + off);
+                    receiveRange(conn.in, fc, off, len);
+                    received.addAndGet(len);
+                }
+            });
+            if (received.get() != size || fc.size() != size) {
+                throw new IOException("Vérification échouée: " + received.get() + " / " + size + " octets");
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(part);
+            System.out.println("ERR " + e.getMessage());
+            return;
+        }
+        Files.move(part, dest, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Le fichier " + filename + " a bien été téléchargé" + rate(size, start));
+    }
+
+    private void parallelUpload(Path file, String filename, long size) throws IOException {
+        out.writeUTF("allocate " + size + " " + filename);
+        out.flush();
+        String response = in.readUTF();
+        if (!response.startsWith("OK")) {
+            System.out.println(response);
+            return;
+        }
+        long chunks = (size + chunkSize - 1) / chunkSize;
+        AtomicLong next = new AtomicLong();
+        long start = System.nanoTime();
+        
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            runWorkers((int) Math.min(streams, chunks), conn -> {
+                long i;
+                while ((i = next.getAndIncrement()) < chunks) {
+                    long off = i * chunkSize;
+                    long len = Math.min(chunkSize, size - off);
+                    String ready = conn.command("upload-range " + off + " " + filename);
+                    if (!ready.startsWith("OK")) throw new IOException(ready);
+                    conn.out.writeLong(len);
+                    sendRange(fc, off, len, conn.out);
+                    conn.out.flush();
+                    String done = conn.in.readUTF();
+                    if (!done.startsWith("OK")) throw new IOException(done);
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("ERR " + e.getMessage());
+            return;
+        }
+        
+        out.writeUTF("commit " + size + " " + filename);
+        out.flush();
+        String confirmResponse = in.readUTF();
+        if (confirmResponse.startsWith("OK")) {
+            System.out.println(confirmResponse.substring(3) + rate(size, start));
         } else {
+            System.out.println(confirmResponse);
+        }
+    }
+
+    private void handleUploadTree(String dirname) throws IOException {
+        Path root = Paths.get(dirname);
+        if (!Files.isDirectory(root)) {
+            System.out.println("Dossier non trouvé ou n'est pas un dossier");
+            return;
+        }
+        out.writeUTF("upload-tree " + dirname);
+        out.flush();
+        String response = in.readUTF();
+        if (!response.startsWith("OK")) {
+            System.out.println(response);
+            return;
+        }
+        
+        long threshold = streams > 1 ? chunkSize : Long.MAX_VALUE;
+        List<Path> large = new ArrayList<>();
+        long start = System.nanoTime();
+        long[] streamed = new long[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root)) {
+                    out.writeByte(TREE_DIRECTORY);
+                    out.writeUTF(relative(root, dir));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+                if (attrs.size() >= threshold) {
+                    large.add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+                try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = fc.size();
+                    out.writeByte(TREE_FILE);
+                    out.writeUTF(relative(root, file));
+                    out.writeLong(size);
+                    sendRange(fc, 0, size, out);
+                    streamed[0] += size;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        out.writeByte(TREE_END);
+        out.flush();
+        String confirmResponse = in.readUTF();
+        System.out.println(confirmResponse.startsWith("OK") ? confirmResponse.substring(3) : confirmResponse);
+        if (large.isEmpty()) {
+            System.out.println(rate(streamed[0], start).trim());
+            return;
+        }
+        
+        AtomicLong next = new AtomicLong();
+        AtomicLong sent = new AtomicLong(streamed[0]);
+        try {
+            runWorkers(Math.min(streams, large.size()), conn -> {
+                long i;
+                while ((i = next.getAndIncrement()) < large.size()) {
+                    Path file = large.get((int) i);
+                    String remote = dirname + "/" + relative(root, file);
+                    try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+                        long size = fc.size();
+                        String ready = conn.command("resume-upload 0 " + remote);
+                        if (!ready.startsWith("OK")) throw new IOException(ready);
+                        conn.out.writeLong(size);
+                        sendRange(fc, 0, size, conn.out);
+                        conn.out.flush();
+                        String done = conn.in.readUTF();
+                        if (!done.startsWith("OK")) throw new IOException(done);
+                        sent.addAndGet(size);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("ERR " + e.getMessage());
+            return;
+        }
+        System.out.println(large.size() + " fichiers volumineux téléversés" + rate(sent.get(), start));
+    }
+
+    private void handleDownloadTree(String dirname) throws IOException {
+        long threshold = streams > 1 ? chunkSize : 0;
+        out.writeUTF("download-tree " + threshold + " " + dirname);
+        out.flush();
+        String response = in.readUTF();
+        if (!response.startsWith("OK")) {
             System.out.println(response);
+            return;
+        }
+        
+        Path root = Paths.get(dirname).toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        List<String> large = new ArrayList<>();
+        int files = 0;
+        int dirs = 0;
+        long received = 0;
+        long start = System.nanoTime();
+        while (true) {
+            byte op = in.readByte();
+            if (op == TREE_END) break;
+            String rel = in.readUTF();
+            Path target = root.resolve(rel).normalize();
+            if (!target.startsWith(root) || target.equals(root)) {
+                throw new IOException("Chemin invalide reçu: " + rel);
+            }
+            if (op == TREE_DIRECTORY) {
+                Files.createDirectories(target);
+                dirs++;
+            } else if (op == TREE_LARGE) {
+                in.readLong();
+                large.add(rel);
+            } else if (op == TREE_FILE) {
+                long size = in.readLong();
+                try (FileChannel fc = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    receiveRange(in, fc, 0, size);
+                }
+                files++;
+                received += size;
+            } else {
+                throw new IOException("Trame d'arborescence inconnue: " + op);
+            }
+        }
+        
+        AtomicLong next = new AtomicLong();
+        AtomicLong total = new AtomicLong(received);
+        if (!large.isEmpty()) {
+            try {
+                runWorkers(Math.min(streams, large.size()), conn -> {
+                    long i;
+                    while ((i = next.getAndIncrement()) < large.size()) {
+                        String rel = large.get((int) i);
+                        String ready = conn.command("resume-download 0 " + dirname + "/" + rel);
+                        if (!ready.startsWith("OK")) throw new IOException(ready);
+                        long size = conn.in.readLong();
+                        try (FileChannel fc = FileChannel.open(root.resolve(rel).normalize(), StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                            receiveRange(conn.in, fc, 0, size);
+                        }
+                        total.addAndGet(size);
+                    }
+                });
+            } catch (IOException e) {
+                System.out.println("ERR " + e.getMessage());
+                return;
+            }
+        }
+        System.out.println("Le dossier " + dirname + " a bien été téléchargé: " + (files + large.size()) + " fichiers, "
+                + dirs + " dossiers" + rate(total.get(), start));
+    }
+
+    private static String relative(Path root, Path p) {
+        StringBuilder sb = new StringBuilder();
+        for (Path name : root.relativize(p)) {
+            if (sb.length() > 0) sb.append('/');
+            sb.append(name);
         }
+        return sb.toString();
+    }
+
+    private void runWorkers(int count, RangeWorker worker) throws IOException {
+        out.writeUTF("pwd");
+        out.flush();
+        String pwd = in.readUTF();
+        if (!pwd.startsWith("OK ")) throw new IOException(pwd);
+        String dir = pwd.substring(3);
+        
+        ExecutorService pool = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                futures.add(pool.submit(() -> {
+                    try (Connection conn = new Connection(serverAddress, serverPort, dir)) {
+                        worker.run(conn);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Transfert interrompu");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private String rate(long bytes, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return String.format(" (%d flux, %.1f Mo/s)", streams, bytes / seconds / (1024 * 1024));
+    }
+
+    private void handleSet(String arg) {
+        String[] parts = arg.split("\\s+");
+        try {
+            if (parts.length == 2 && parts[0].equals("streams")) {
+                streams = Math.max(1, Integer.parseInt(parts[1]));
+            } else if (parts.length == 2 && parts[0].equals("chunk")) {
+                chunkSize = Math.max(64 * 1024, Long.parseLong(parts[1]));
+            } else if (parts.length == 2 && parts[0].equals("delta")) {
+                delta = parts[1].equals("on");
+            } else {
+                System.out.println("Usage: set streams <n> | set chunk <octets> | set delta on|off");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Veuillez entrer un nombre.");
+            return;
+        }
+        System.out.println("streams=" + streams + ", chunk=" + chunkSize + ", delta=" + (delta ? "on" : "off"));
+    }
+
+    private static void sendRange(FileChannel fc, long position, long count, DataOutputStream out) throws IOException {
+        sendRange(fc, position, count, out, null);
+    }
+
+    private static void sendRange(FileChannel fc, long position, long count, DataOutputStream out, Checksum crc)
+            throws IOException {
+        byte[] buf = BufferPool.array();
+        try {
+            ByteBuffer wrapped = ByteBuffer.wrap(buf);
+            long end = position + count;
+            while (position < end) {
+                wrapped.clear().limit((int) Math.min(buf.length, end - position));
+                int r = fc.read(wrapped, position);
+                if (r == -1) throw new IOException("Fichier local tronqué pendant l'envoi");
+                if (crc != null) crc.update(buf, 0, r);
+                out.write(buf, 0, r);
+                position += r;
+            }
+        } finally {
+            BufferPool.release(buf);
+        }
+    }
+
+    private static void receiveRange(DataInputStream in, FileChannel fc, long position, long count) throws IOException {
+        receiveRange(in, fc, position, count, null);
+    }
+
+    private static void receiveRange(DataInputStream in, FileChannel fc, long position, long count, Checksum crc)
+            throws IOException {
+        byte[] buf = BufferPool.array();
+        try {
+            ByteBuffer wrapped = ByteBuffer.wrap(buf);
+            long remaining = count;
+            while (remaining > 0) {
+                int toRead = (int) Math.min(buf.length, remaining);
+                int r = in.read(buf, 0, toRead);
+                if (r == -1) throw new IOException("Stream ended prematurely");
+                if (crc != null) crc.update(buf, 0, r);
+                wrapped.clear().limit(r);
+                while (wrapped.hasRemaining()) {
+                    position += fc.write(wrapped, position);
+                }
+                remaining -= r;
+            }
+        } finally {
+            BufferPool.release(buf);
+        }
+    }
+
+    private void handleBatch(String scriptFile) throws IOException {
+        List<String> commands = readScript(scriptFile, "batch");
+        if (commands == null) return;
+        long start = System.nanoTime();
+        for (int from = 0; from < commands.size(); from += BATCH_SIZE) {
+            List<String> slice = commands.subList(from, Math.min(commands.size(), from + BATCH_SIZE));
+            out.writeUTF("batch " + slice.size());
+            for (String command : slice) {
+                out.writeUTF(command);
+            }
+            out.flush();
+            String response = in.readUTF();
+            System.out.println(response.startsWith("OK") ? response.substring(3) : response);
+        }
+        System.out.println(commands.size() + " commandes en " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private void handlePipeline(String scriptFile) throws IOException {
+        List<String> commands = readScript(scriptFile, "pipeline");
+        if (commands == null) return;
+        long start = System.nanoTime();
+        int failed = 0;
+        for (int from = 0; from < commands.size(); from += PIPELINE_WINDOW) {
+            int to = Math.min(commands.size(), from + PIPELINE_WINDOW);
+            for (int i = from; i < to; i++) {
+                out.writeUTF("#" + i + " " + commands.get(i));
+            }
+            out.flush();
+            for (int i = from; i < to; i++) {
+                String tag = in.readUTF();
+                String response = in.readUTF();
+                if (!tag.equals("#" + i)) throw new IOException("Réponse inattendue: " + tag);
+                if (!response.startsWith("OK")) {
+                    failed++;
+                    System.out.println(commands.get(i) + ": " + response);
+                }
+            }
+        }
+        System.out.println(commands.size() + " commandes en " + (System.nanoTime() - start) / 1_000_000 + " ms, "
+                + failed + " échec(s)");
+    }
+
+    private List<String> readScript(String scriptFile, String usage) throws IOException {
+        if (scriptFile.isEmpty()) {
+            System.out.println("Usage: " + usage + " <fichier de commandes>");
+            return null;
+        }
+        Path script = Paths.get(scriptFile);
+        if (!Files.isRegularFile(script)) {
+            System.out.println("Fichier non trouvé ou n'est pas un fichier");
+            return null;
+        }
+        List<String> commands = new ArrayList<>();
+        for (String line : Files.readAllLines(script)) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            if (!SCRIPT_COMMANDS.contains(line.split("\\s+", 2)[0].toLowerCase())) {
+                System.out.println("Commande non supportée dans un script: " + line);
+                return null;
+            }
+            commands.add(line);
+        }
+        return commands;
+    }
+
+    private void handleStats(String input) throws IOException {
+        out.writeUTF(input);
+        out.flush();
+        String response = in.readUTF();
+        System.out.println(response.startsWith("OK") ? response.substring(3) : response);
     }
 
     private void handleExit(String input) throws IOException {
+        if (!jobs.isEmpty()) {
+            System.out.println("Attente de " + jobs.size() + " transfert(s) en arrière-plan...");
+            for (Job job : jobs.values()) {
+                try {
+                    job.thread().join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
         out.writeUTF(input);
         out.flush();
         String response = in.readUTF();
@@ -274,4 +1136,40 @@ public class Client {
         
         return true;
     }
-}
\ No newline at end of file
+
+    private interface RangeWorker {
+        void run(Connection conn) throws IOException;
+    }
+
+    private static final class Connection implements Closeable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(String host, int port, String dir) throws IOException {
+            socket = new Socket(host, port);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in.readUTF();
+            if (!dir.equals(".")) {
+                String response = command("cd " + dir);
+                if (!response.startsWith("OK")) throw new IOException(response);
+            }
+        }
+
+        String command(String line) throws IOException {
+            out.writeUTF(line);
+            out.flush();
+            return in.readUTF();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!Thread.currentThread().isInterrupted()) command("exit");
+            } finally {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package client;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+final class DeltaEncoder {
+    private static final byte LITERAL = 'L';
+    private static final byte BLOCKS = 'B';
+    private static final byte END = 'E';
+    private static final int MAX_LITERAL = 64 * 1024;
+
+    private final int blockSize;
+    private final int count;
+    private final Map<Integer, int[]> byWeak = new HashMap<>();
+    private final byte[][] strong;
+    private final MessageDigest md5;
+
+    private long literalBytes;
+    private int runStart = -1;
+    private int runLength;
+
+    private DeltaEncoder(int blockSize, int count) throws IOException {
+        this.blockSize = blockSize;
+        this.count = count;
+        this.strong = new byte[count][];
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static DeltaEncoder readSignature(DataInputStream in) throws IOException {
+        long basisSize = in.readLong();
+        int blockSize = in.readInt();
+        int count = in.readInt();
+        DeltaEncoder encoder = new DeltaEncoder(blockSize, count);
+        for (int i = 0; i < count; i++) {
+            int weak = in.readInt();
+            byte[] digest = new byte[16];
+            in.readFully(digest);
+            encoder.strong[i] = digest;
+            long blockEnd = Math.min(basisSize, (long) (i + 1) * blockSize);
+            if (blockEnd - (long) i * blockSize == blockSize) {
+                encoder.byWeak.merge(weak, new int[] { i }, (a, b) -> {
+                    int[] merged = Arrays.copyOf(a, a.length + 1);
+                    merged[a.length] = b[0];
+                    return merged;
+                });
+            }
+        }
+        return encoder;
+    }
+
+    long literalBytes() {
+        return literalBytes;
+    }
+
+    void encode(FileChannel file, DataOutputStream out) throws IOException {
+        long size = file.size();
+        byte[] buf = new byte[Math.max(4 * blockSize, 1 << 20)];
+        int end = 0;
+        long bufOffset = 0;
+        long pos = 0;
+        long literalStart = 0;
+        int a = 0;
+        int b = 0;
+        boolean fresh = true;
+
+        while (pos + blockSize <= size) {
+            int windowEnd = (int) (pos - bufOffset) + blockSize + 1;
+            if (windowEnd > end && bufOffset + end < size) {
+                long keep = Math.min(pos, literalStart);
+                if (pos - literalStart >= MAX_LITERAL) {
+                    flushLiteral(buf, (int) (literalStart - bufOffset), (int) (pos - literalStart), out);
+                    literalStart = pos;
+                    keep = pos;
+                }
+                int shift = (int) (keep - bufOffset);
+                System.arraycopy(buf, shift, buf, 0, end - shift);
+                end -= shift;
+                bufOffset = keep;
+                ByteBuffer wrapped = ByteBuffer.wrap(buf, end, buf.length - end);
+                while (wrapped.hasRemaining() && bufOffset + wrapped.position() < size) {
+                    if (file.read(wrapped, bufOffset + wrapped.position()) == -1) break;
+                }
+                end = wrapped.position();
+            }
+
+            int w = (int) (pos - bufOffset);
+            if (fresh) {
+                a = 0;
+                b = 0;
+                for (int i = 0; i < blockSize; i++) {
+                    int x = buf[w + i] & 0xFF;
+                    a += x;
+                    b += (blockSize - i) * x;
+                }
+                fresh = false;
+            }
+
+            int weak = ((b & 0xFFFF) << 16) | (a & 0xFFFF);
+            int match = find(weak, buf, w);
+            if (match >= 0) {
+                if (pos > literalStart) {
+                    flushLiteral(buf, (int) (literalStart - bufOffset), (int) (pos - literalStart), out);
+                }
+                addBlock(match, out);
+                pos += blockSize;
+                literalStart = pos;
+                fresh = true;
+                continue;
+            }
+
+            if (pos - literalStart >= MAX_LITERAL) {
+                flushLiteral(buf, (int) (literalStart - bufOffset), (int) (pos - literalStart), out);
+                literalStart = pos;
+            }
+            if (pos + blockSize < size) {
+                int x = buf[w] & 0xFF;
+                int y = buf[w + blockSize] & 0xFF;
+                a = a - x + y;
+                b = b - blockSize * x + a;
+            }
+            pos++;
+        }
+
+        flushRun(out);
+        long tail = literalStart;
+        while (tail < size) {
+            int len = (int) Math.min(MAX_LITERAL, size - tail);
+            ByteBuffer chunk = ByteBuffer.allocate(len);
+            while (chunk.hasRemaining()) {
+                if (file.read(chunk, tail + chunk.position()) == -1) throw new IOException("Fichier local tronqué");
+            }
+            writeLiteral(chunk.array(), 0, len, out);
+            tail += len;
+        }
+        out.writeByte(END);
+        out.writeLong(size);
+        out.flush();
+    }
+
+    private int find(int weak, byte[] buf, int off) {
+        int[] candidates = byWeak.get(weak);
+        if (candidates == null) return -1;
+        md5.update(buf, off, blockSize);
+        byte[] digest = md5.digest();
+        if (runStart >= 0 && runStart + runLength < count
+                && Arrays.equals(strong[runStart + runLength], digest)) {
+            return runStart + runLength;
+        }
+        for (int c : candidates) {
+            if (Arrays.equals(strong[c], digest)) return c;
+        }
+        return -1;
+    }
+
+    private void addBlock(int index, DataOutputStream out) throws IOException {
+        if (runStart >= 0 && index == runStart + runLength) {
+            runLength++;
+            return;
+        }
+        flushRun(out);
+        runStart = index;
+        runLength = 1;
+    }
+
+    private void flushRun(DataOutputStream out) throws IOException {
+        if (runStart < 0) return;
+        out.writeByte(BLOCKS);
+        out.writeInt(runStart);
+        out.writeInt(runLength);
+        runStart = -1;
+        runLength = 0;
+    }
+
+    private void flushLiteral(byte[] buf, int off, int len, DataOutputStream out) throws IOException {
+        flushRun(out);
+        writeLiteral(buf, off, len, out);
+    }
+
+    private void writeLiteral(byte[] buf, int off, int len, DataOutputStream out) throws IOException {
+        out.writeByte(LITERAL);
+        out.writeInt(len);
+        out.write(buf, off, len);
+        literalBytes += len;
+    }
+}
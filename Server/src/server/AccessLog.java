@@ -0,0 +1,217 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+final class AccessLog {
+    private static final DateTimeFormatter TS =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final int BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private static final class Slot {
+        volatile long sequence;
+        long timestamp;
+        String client;
+        String command;
+        String status;
+        String detail;
+        long bytes;
+        long nanos;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final boolean block;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final StringBuilder batch = new StringBuilder(BATCH * 96);
+    private final Path file;
+    private final long maxBytes;
+    private final int files;
+    private long head;
+    private OutputStream sink;
+    private long size;
+
+    private AccessLog(int capacity, boolean block, Path file, long maxBytes, int files) throws IOException {
+        int n = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+        this.slots = new Slot[n];
+        for (int i = 0; i < n; i++) {
+            slots[i] = new Slot();
+            slots[i].sequence = i;
+        }
+        this.mask = n - 1;
+        this.block = block;
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.files = files;
+        this.sink = file == null ? System.out : open();
+    }
+
+    static AccessLog start() throws IOException {
+        String target = ServerConfig.ACCESS_LOG;
+        if (target.equals("none")) return null;
+        Path file = target.equals("-") ? null : Paths.get(target).toAbsolutePath().normalize();
+        AccessLog log = new AccessLog(ServerConfig.ACCESS_LOG_BUFFER, ServerConfig.ACCESS_LOG_POLICY.equals("block"),
+                file, ServerConfig.ACCESS_LOG_MAX_BYTES, ServerConfig.ACCESS_LOG_FILES);
+        Thread t = new Thread(log::drainLoop, "access-log");
+        t.setDaemon(true);
+        t.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            while (log.drain() > 0) { }
+        }, "access-log-flush"));
+        return log;
+    }
+
+    void record(String client, String command, String status, long bytes, long nanos, String detail) {
+        long pos = tail.get();
+        Slot slot;
+        while (true) {
+            slot = slots[(int) (pos & mask)];
+            long diff = slot.sequence - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+                pos = tail.get();
+            } else if (diff < 0) {
+                if (!block) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS / 10);
+                pos = tail.get();
+            } else {
+                pos = tail.get();
+            }
+        }
+        slot.timestamp = System.currentTimeMillis();
+        slot.client = client;
+        slot.command = command;
+        slot.status = status;
+        slot.bytes = bytes;
+        slot.nanos = nanos;
+        slot.detail = detail;
+        slot.sequence = pos + 1;
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    String stats() {
+        return "accesslog written=" + written.sum() + " dropped=" + dropped.sum() + " pending=" + (tail.get() - head);
+    }
+
+    private void drainLoop() {
+        while (true) {
+            if (drain() == 0) LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private synchronized int drain() {
+        int count = 0;
+        try {
+            batch.setLength(0);
+            while (count < BATCH) {
+                Slot slot = slots[(int) (head & mask)];
+                if (slot.sequence != head + 1) break;
+                format(slot, batch);
+                slot.client = slot.command = slot.status = slot.detail = null;
+                slot.sequence = head + slots.length;
+                head++;
+                count++;
+            }
+            if (count > 0) {
+                write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                written.add(count);
+            }
+        } catch (IOException e) {
+            System.err.println("Erreur journal d'accès: " + e.getMessage());
+        }
+        return count;
+    }
+
+    private static void format(Slot s, StringBuilder out) {
+        out.append("{\"ts\":\"");
+        TS.formatTo(Instant.ofEpochMilli(s.timestamp), out);
+        out.append("\",\"client\":");
+        quote(s.client, out);
+        out.append(",\"cmd\":");
+        quote(s.command, out);
+        out.append(",\"status\":");
+        quote(s.status, out);
+        if (s.bytes >= 0) out.append(",\"bytes\":").append(s.bytes);
+        if (s.nanos >= 0) out.append(",\"us\":").append(s.nanos / 1000);
+        if (s.detail != null) {
+            out.append(",\"detail\":");
+            quote(s.detail, out);
+        }
+        out.append("}\n");
+    }
+
+    private static void quote(String s, StringBuilder out) {
+        if (s == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private void write(byte[] data) throws IOException {
+        if (file != null && size + data.length > maxBytes && size > 0) rotate();
+        sink.write(data);
+        sink.flush();
+        size += data.length;
+    }
+
+    private OutputStream open() throws IOException {
+        Files.createDirectories(file.getParent());
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        size = channel.size();
+        return Channels.newOutputStream(channel);
+    }
+
+    private void rotate() throws IOException {
+        sink.close();
+        for (int i = files - 1; i >= 1; i--) {
+            Path older = rotated(i);
+            if (Files.exists(older)) Files.move(older, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (files > 0) {
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        sink = open();
+    }
+
+    private Path rotated(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+}
@@ -0,0 +1,181 @@
+package server;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+final class Allocations {
+    private static final Pattern FILE = Pattern.compile("\\d+\\.ranges");
+
+    private final Path dir;
+    private final long timeoutNanos;
+    private final AtomicLong sequence = new AtomicLong();
+    private final HashMap<Path, Allocation> active = new HashMap<>();
+    private final HashMap<Path, Path> files = new HashMap<>();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder aborted = new LongAdder();
+
+    private static final class Allocation {
+        final Path dest;
+        final long size;
+        final Usage.Reservation quota;
+        final TreeMap<Long, Long> done = new TreeMap<>();
+        long touched = System.nanoTime();
+
+        Allocation(Path dest, long size, Usage.Reservation quota) {
+            this.dest = dest;
+            this.size = size;
+            this.quota = quota;
+        }
+
+        void add(long start, long end) {
+            Map.Entry<Long, Long> before = done.floorEntry(start);
+            if (before != null && before.getValue() >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+            }
+            Map.Entry<Long, Long> next;
+            while ((next = done.ceilingEntry(start)) != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                done.remove(next.getKey());
+            }
+            done.put(start, end);
+        }
+
+        boolean covered() {
+            if (size == 0) return true;
+            Map.Entry<Long, Long> first = done.firstEntry();
+            return first != null && first.getKey() == 0 && first.getValue() >= size;
+        }
+    }
+
+    Allocations(Path dir, long timeoutMillis) throws IOException {
+        this.dir = dir;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1000, timeoutMillis));
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(dir)) {
+            for (Path p : leftovers) {
+                if (FILE.matcher(p.getFileName().toString()).matches() && Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+        Thread t = new Thread(this::expireLoop, "range-expiry");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    Path allocate(Path dest, long size, Usage.Reservation quota) throws IOException {
+        Path ranges = dir.resolve(sequence.incrementAndGet() + ".ranges");
+        try (RandomAccessFile raf = new RandomAccessFile(ranges.toFile(), "rw")) {
+            raf.setLength(size);
+        } catch (IOException e) {
+            Files.deleteIfExists(ranges);
+            throw e;
+        }
+        Path previous;
+        synchronized (this) {
+            active.put(ranges, new Allocation(dest, size, quota));
+            previous = files.put(dest, ranges);
+        }
+        if (previous != null) abort(previous);
+        return ranges;
+    }
+
+    synchronized Path file(Path dest) {
+        Path ranges = files.get(dest);
+        if (ranges != null) active.get(ranges).touched = System.nanoTime();
+        return ranges;
+    }
+
+    synchronized long size(Path ranges) {
+        Allocation a = active.get(ranges);
+        if (a == null) return -1;
+        a.touched = System.nanoTime();
+        return a.size;
+    }
+
+    synchronized void completed(Path ranges, long offset, long length) {
+        Allocation a = active.get(ranges);
+        if (a == null || length <= 0) return;
+        a.add(offset, offset + length);
+        a.touched = System.nanoTime();
+    }
+
+    synchronized boolean covered(Path ranges, long size) {
+        Allocation a = active.get(ranges);
+        return a != null && a.size == size && a.covered();
+    }
+
+    synchronized Usage.Reservation remove(Path ranges) {
+        Allocation a = active.remove(ranges);
+        if (a == null) return null;
+        files.remove(a.dest, ranges);
+        return a.quota;
+    }
+
+    void abort(Path ranges) {
+        Allocation a;
+        synchronized (this) {
+            a = active.remove(ranges);
+            if (a != null) files.remove(a.dest, ranges);
+        }
+        if (a == null) return;
+        aborted.increment();
+        delete(ranges, a);
+    }
+
+    synchronized String stats() {
+        return "ranges=" + active.size() + " aborted=" + aborted.sum() + " expired=" + expired.sum();
+    }
+
+    private void expireLoop() {
+        long period = Math.max(TimeUnit.SECONDS.toMillis(1), TimeUnit.NANOSECONDS.toMillis(timeoutNanos) / 4);
+        while (true) {
+            try {
+                Thread.sleep(period);
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<Map.Entry<Path, Allocation>> stale = new ArrayList<>();
+            synchronized (this) {
+                long now = System.nanoTime();
+                Iterator<Map.Entry<Path, Allocation>> it = active.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Path, Allocation> e = it.next();
+                    if (now - e.getValue().touched > timeoutNanos) {
+                        stale.add(Map.entry(e.getKey(), e.getValue()));
+                        files.remove(e.getValue().dest, e.getKey());
+                        it.remove();
+                    }
+                }
+            }
+            for (Map.Entry<Path, Allocation> e : stale) {
+                expired.increment();
+                delete(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private void delete(Path ranges, Allocation a) {
+        try {
+            Files.deleteIfExists(ranges);
+        } catch (IOException e) {
+            System.err.println("Suppression impossible de " + ranges + ": " + e.getMessage());
+        }
+        if (a.quota != null) a.quota.release();
+    }
+}
@@ -0,0 +1,61 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+final class BufferPool {
+    static final int SMALL = 4 * 1024;
+    static final int LARGE = FileTransfer.BUFFER_SIZE;
+
+    private static final ArrayBlockingQueue<byte[]> ARRAYS = new ArrayBlockingQueue<>(ServerConfig.BUFFER_POOL);
+    private static final ArrayBlockingQueue<ByteBuffer> SMALL_DIRECT = new ArrayBlockingQueue<>(ServerConfig.BUFFER_POOL);
+    private static final ArrayBlockingQueue<ByteBuffer> LARGE_DIRECT = new ArrayBlockingQueue<>(ServerConfig.BUFFER_POOL);
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private BufferPool() {}
+
+    static byte[] array() {
+        byte[] b = ARRAYS.poll();
+        if (b != null) {
+            hits.increment();
+            return b;
+        }
+        misses.increment();
+        return new byte[LARGE];
+    }
+
+    static void release(byte[] b) {
+        if (b != null && b.length == LARGE) ARRAYS.offer(b);
+    }
+
+    static ByteBuffer direct(int size) {
+        if (size > LARGE) {
+            misses.increment();
+            return ByteBuffer.allocate(size);
+        }
+        ArrayBlockingQueue<ByteBuffer> pool = size <= SMALL ? SMALL_DIRECT : LARGE_DIRECT;
+        ByteBuffer b = pool.poll();
+        if (b != null) {
+            hits.increment();
+            return b.clear();
+        }
+        misses.increment();
+        return ByteBuffer.allocateDirect(size <= SMALL ? SMALL : LARGE);
+    }
+
+    static void release(ByteBuffer b) {
+        if (b == null || !b.isDirect()) return;
+        if (b.capacity() == SMALL) {
+            SMALL_DIRECT.offer(b);
+        } else if (b.capacity() == LARGE) {
+            LARGE_DIRECT.offer(b);
+        }
+    }
+
+    static String stats() {
+        return "buffers arrays=" + ARRAYS.size() + " direct=" + SMALL_DIRECT.size() + "+" + LARGE_DIRECT.size()
+                + " hits=" + hits.sum() + " misses=" + misses.sum();
+    }
+}
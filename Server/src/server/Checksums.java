@@ -0,0 +1,158 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+final class Checksums {
+    static final String CRC32C = "crc32c";
+    static final String NONE = "none";
+    private static final String TRAILER = "CRC32C ";
+    private static final String SUFFIX = "." + CRC32C;
+
+    private final Path baseDir;
+    private final Path dir;
+    private final int capacity;
+    private final LinkedHashMap<Path, Entry> entries;
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder sidecarHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder computed = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+
+    private record Entry(long size, long mtime, long value) {}
+
+    Checksums(Path baseDir, Path dir, int capacity) throws IOException {
+        this.baseDir = baseDir;
+        this.dir = dir;
+        this.capacity = Math.max(1, capacity);
+        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) {
+                return size() > Checksums.this.capacity;
+            }
+        };
+        Files.createDirectories(dir);
+    }
+
+    static String negotiate(String offered) {
+        if (!ServerConfig.INTEGRITY.equals(CRC32C)) return NONE;
+        for (String algorithm : offered.split("[,\\s]+")) {
+            if (algorithm.equalsIgnoreCase(CRC32C)) return CRC32C;
+        }
+        return NONE;
+    }
+
+    static String trailer(long value) {
+        return TRAILER + hex(value);
+    }
+
+    static long parseTrailer(String line) throws IOException {
+        if (!line.startsWith(TRAILER)) throw new IOException("Trame de contrôle invalide");
+        try {
+            return Long.parseLong(line.substring(TRAILER.length()).trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Trame de contrôle invalide");
+        }
+    }
+
+    static String hex(long value) {
+        return String.format(Locale.ROOT, "%08x", value);
+    }
+
+    long cached(Path file, long size, long mtime) {
+        synchronized (this) {
+            Entry e = entries.get(file);
+            if (e != null && e.size() == size && e.mtime() == mtime) {
+                hits.increment();
+                return e.value();
+            }
+        }
+        Entry e = readSidecar(file);
+        if (e != null && e.size() == size && e.mtime() == mtime) {
+            sidecarHits.increment();
+            synchronized (this) {
+                entries.put(file, e);
+            }
+            return e.value();
+        }
+        misses.increment();
+        return -1;
+    }
+
+    long checksum(Path file, Storage storage) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = storage.size(file);
+        long mtime = attrs.lastModifiedTime().toMillis();
+        long value = cached(file, size, mtime);
+        if (value >= 0) return value;
+        CRC32C crc = new CRC32C();
+        try (ContentSource source = storage.open(file)) {
+            source.checksum(0, size, crc);
+        }
+        value = crc.getValue();
+        store(file, size, mtime, value);
+        return value;
+    }
+
+    void store(Path file, long size, long mtime, long value) {
+        computed.increment();
+        Entry e = new Entry(size, mtime, value);
+        synchronized (this) {
+            entries.put(file, e);
+        }
+        Path sidecar = sidecar(file);
+        if (sidecar == null) return;
+        Path tmp = sidecar.resolveSibling("." + sidecar.getFileName() + "." + sequence.incrementAndGet() + ".tmp");
+        try {
+            Files.createDirectories(sidecar.getParent());
+            Files.writeString(tmp, size + " " + mtime + " " + hex(value) + "\n", StandardCharsets.US_ASCII);
+            try {
+                Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    void mismatch() {
+        mismatches.increment();
+    }
+
+    synchronized String stats() {
+        return "checksums=" + entries.size() + "/" + capacity + " hits=" + hits.sum() + " sidecar=" + sidecarHits.sum()
+                + " misses=" + misses.sum() + " computed=" + computed.sum() + " mismatches=" + mismatches.sum();
+    }
+
+    private Entry readSidecar(Path file) {
+        Path sidecar = sidecar(file);
+        if (sidecar == null) return null;
+        try {
+            String[] parts = Files.readString(sidecar, StandardCharsets.US_ASCII).trim().split(" ");
+            if (parts.length != 3) return null;
+            return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2], 16));
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Path sidecar(Path file) {
+        if (!file.startsWith(baseDir) || file.equals(baseDir)) return null;
+        return dir.resolve(baseDir.relativize(file) + SUFFIX);
+    }
+}
@@ -1,224 +1,1483 @@
 package server;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
 
 public class ClientHandler implements Runnable {
     private final Socket socket;
     private final Path baseDir;
-    private Path currentDir;
+    private final DirectoryCache directories;
+    private final Storage storage;
+    private final TreeDeleter deleter;
+    private final Durability durability;
+    private final Qos qos;
+    private final NameIndex names;
+    private final Usage usage;
+    private final Allocations allocations;
+    private final Checksums checksums;
+    private final Qos.Limiter limiter;
+    private final String who;
+    private final String client;
+    private final boolean deferTransfers;
+    private final boolean loopback;
+    private volatile Path currentDir;
     private DataInputStream in;
     private DataOutputStream out;
+    private Transfer deferred;
+    private Pending pending;
+    private Usage.Reservation reservation;
+    private long uploadSize;
+    private boolean compress;
+    private boolean integrity;
+    private CoalescingOutputStream coalescing;
+    private Batch batch;
+    private final AccessLog accessLog;
+    private String status;
+    private final Metrics metrics;
+    private long bytesIn;
+    private long bytesOut;
+    private long sessionIn;
+    private long sessionOut;
+    private long sessionStart;
+    private boolean closed;
+    private String detail;
 
-    private static final DateTimeFormatter TS =
-            DateTimeFormatter.ofPattern("yyyy-MM-dd@HH:mm:ss");
+    private static final int MAX_BATCH = 100_000;
+    private static final int MAX_BATCH_ERRORS = 10;
+    private static final Set<String> BATCH_COMMANDS = Set.of("cd", "mkdir", "delete", "stat");
+    private static final Set<String> BULK_COMMANDS = Set.of("download", "upload", "resume-download", "resume-upload",
+            "download-range", "upload-range", "upload-tree", "download-tree", "signature", "delta");
+    private static final Set<String> METADATA_COMMANDS = Set.of("ls", "list", "find", "du", "cd", "pwd", "stat",
+            "mkdir");
+    private static final Set<String> THROTTLE_SCOPES = Set.of("global", "ip", "session", "transfers");
 
-    public ClientHandler(Socket socket, Path baseDir) {
+    record Transfer(boolean upload, Path path, long position, long size, boolean truncate, Path publish, String reply) {}
+
+    private record Pending(String name, String line, long start, boolean upload) {}
+
+    public ClientHandler(Socket socket, ServerContext context) {
         this.socket = socket;
-        this.baseDir = baseDir;
+        this.baseDir = context.baseDir;
+        this.directories = context.directories;
+        this.storage = context.storage;
+        this.deleter = context.deleter;
+        this.durability = context.durability;
+        this.names = context.names;
+        this.usage = context.usage;
+        this.allocations = context.allocations;
+        this.checksums = context.checksums;
+        this.accessLog = context.accessLog;
+        this.metrics = context.metrics;
+        this.currentDir = baseDir;
+        this.who = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        this.client = socket.getInetAddress().getHostAddress();
+        this.qos = context.qos;
+        this.limiter = qos.limiter(socket.getInetAddress().getHostAddress());
+        this.deferTransfers = false;
+        this.loopback = socket.getInetAddress().isLoopbackAddress();
+    }
+
+    ClientHandler(String who, ServerContext context, OutputStream response) {
+        this.socket = null;
+        this.baseDir = context.baseDir;
+        this.directories = context.directories;
+        this.storage = context.storage;
+        this.deleter = context.deleter;
+        this.durability = context.durability;
+        this.names = context.names;
+        this.usage = context.usage;
+        this.allocations = context.allocations;
+        this.checksums = context.checksums;
+        this.accessLog = context.accessLog;
+        this.metrics = context.metrics;
         this.currentDir = baseDir;
+        this.who = who;
+        this.client = who.lastIndexOf(':') > 0 ? who.substring(0, who.lastIndexOf(':')) : who;
+        this.qos = context.qos;
+        this.limiter = null;
+        this.out = new DataOutputStream(response);
+        this.deferTransfers = true;
+        this.loopback = false;
+    }
+
+    private ClientHandler(ClientHandler session, Mux.Stream stream, Path currentDir) {
+        this.socket = null;
+        this.baseDir = session.baseDir;
+        this.directories = session.directories;
+        this.storage = session.storage;
+        this.deleter = session.deleter;
+        this.durability = session.durability;
+        this.names = session.names;
+        this.usage = session.usage;
+        this.allocations = session.allocations;
+        this.checksums = session.checksums;
+        this.accessLog = session.accessLog;
+        this.metrics = session.metrics;
+        this.currentDir = currentDir;
+        this.who = session.who + "#" + stream.id;
+        this.client = session.client;
+        this.qos = session.qos;
+        this.limiter = session.limiter.stream();
+        this.in = new DataInputStream(limiter.input(stream.input));
+        this.out = new DataOutputStream(limiter.output(stream.output));
+        this.compress = session.compress;
+        this.integrity = session.integrity;
+        this.deferTransfers = false;
+        this.loopback = session.loopback;
+        this.sessionStart = System.nanoTime();
     }
 
     @Override
     public void run() {
-        String who = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
         try (socket) {
-            in = new DataInputStream(socket.getInputStream());
-            out = new DataOutputStream(socket.getOutputStream());
+            coalescing = new CoalescingOutputStream(socket.getOutputStream(), socket.getInputStream());
+            in = new DataInputStream(limiter.input(coalescing.input()));
+            out = new DataOutputStream(limiter.output(coalescing));
 
-            log(who, "CONNECT");
-            out.writeUTF("OK CONNECTED");
-            out.flush();
+            greet();
+            serve();
+        } catch (IOException e) {
+            error(e);
+        } finally {
+            closed();
+        }
+    }
 
-            while (true) {
-                String line;
-                try {
-                    line = in.readUTF();
-                } catch (IOException eof) {
-                    log(who, "DISCONNECT");
-                    break;
-                }
-                if (line == null) break;
-                line = line.trim();
-                if (line.isEmpty()) { 
-                    out.writeUTF("ERR Empty command");
-                    out.flush();
-                    continue; 
-                }
+    private void serve() throws IOException {
+        while (true) {
+            String line;
+            try {
+                line = in.readUTF();
+            } catch (IOException eof) {
+                log(who, "DISCONNECT");
+                break;
+            }
+            if (line == null) break;
+            if (!dispatch(line)) return;
+        }
+    }
 
-                String[] parts = line.split("\\s+", 2);
-                String cmd = parts[0].toLowerCase();
-                String arg = (parts.length > 1) ? parts[1].trim() : "";
+    private void serve(Mux.Stream stream) {
+        try {
+            serve();
+        } catch (IOException e) {
+            System.err.println("[" + who + "] erreur: " + e.getMessage());
+        } finally {
+            limiter.close();
+            stream.close();
+        }
+    }
 
-                log(who, line);
+    void greet() throws IOException {
+        sessionStart = System.nanoTime();
+        metrics.sessionOpened();
+        log(who, "CONNECT");
+        ok(Replies.CONNECTED);
+        out.flush();
+    }
 
-                switch (cmd) {
-                    case "ls":       handleLs(); break;
-                    case "cd":       handleCd(arg); break;
-                    case "mkdir":    handleMkdir(arg); break;
-                    case "delete":   handleDelete(arg); break;
-                    case "download": handleDownload(arg); break;
-                    case "upload":   handleUpload(arg); break;
-                    case "exit":
-                        out.writeUTF("OK BYE");
-                        out.flush();
-                        log(who, "EXIT");
-                        return;
-                    default:
-                        out.writeUTF("ERR Unknown command");
-                        out.flush();
+    boolean dispatch(String line) throws IOException {
+        long start = System.nanoTime();
+        bytesIn = -1;
+        bytesOut = -1;
+        detail = null;
+        status = null;
+        String name = commandName(line);
+        try {
+            if (limiter != null) {
+                if (BULK_COMMANDS.contains(name)) {
+                    limiter.beginBulk();
+                } else if (METADATA_COMMANDS.contains(name)) {
+                    limiter.beginMetadata();
                 }
             }
-        } catch (IOException e) {
-            System.err.println("[" + socket.getInetAddress().getHostAddress() + ":" + socket.getPort() + "] erreur: " + e.getMessage());
+            return execute(line.trim());
+        } finally {
+            if (limiter != null) limiter.end();
+            if (deferred != null) {
+                pending = new Pending(name, line, start, deferred.upload());
+            } else {
+                record(name, line, start);
+            }
         }
     }
 
+    void deferredFinished(long bytes, boolean failed) {
+        Pending p = pending;
+        if (p == null) return;
+        pending = null;
+        if (p.upload()) {
+            bytesIn = bytes;
+        } else {
+            bytesOut = bytes;
+        }
+        if (failed) {
+            status = "ERR";
+            if (detail == null) detail = "aborted";
+        }
+        record(p.name(), p.line(), p.start());
+    }
+
+    private void record(String name, String line, long start) {
+        long nanos = System.nanoTime() - start;
+        metrics.record(name, "OK".equals(status), bytesIn, bytesOut, nanos);
+        if (bytesIn > 0) sessionIn += bytesIn;
+        if (bytesOut > 0) sessionOut += bytesOut;
+        if (accessLog != null) {
+            accessLog.record(who, line, status, Math.max(bytesIn, bytesOut), nanos, detail);
+        }
+    }
+
+    String commandName(String line) {
+        if (batch != null) return "batch";
+        int start = skipSpaces(line, 0);
+        int end = nextSpace(line, start);
+        if (end > start && line.charAt(start) == '#' && skipSpaces(line, end) < line.length()) {
+            start = skipSpaces(line, end);
+            end = nextSpace(line, start);
+        }
+        return line.substring(start, end).toLowerCase();
+    }
+
+    static String[] words(String s, int limit) {
+        int n = 0;
+        int i = skipSpaces(s, 0);
+        while (i < s.length() && (limit <= 0 || n < limit)) {
+            n++;
+            i = skipSpaces(s, nextSpace(s, i));
+        }
+        if (n == 0) return new String[] { "" };
+        String[] parts = new String[n];
+        i = skipSpaces(s, 0);
+        for (int k = 0; k < n; k++) {
+            int end = k == limit - 1 ? s.length() : nextSpace(s, i);
+            parts[k] = s.substring(i, end);
+            i = skipSpaces(s, end);
+        }
+        return parts;
+    }
+
+    private static int skipSpaces(String s, int i) {
+        while (i < s.length() && isSpace(s.charAt(i))) i++;
+        return i;
+    }
+
+    private static int nextSpace(String s, int i) {
+        while (i < s.length() && !isSpace(s.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    private boolean execute(String line) throws IOException {
+        if (batch != null) {
+            batchItem(line);
+            return true;
+        }
+        String tag = null;
+        if (line.startsWith("#")) {
+            int space = line.indexOf(' ');
+            tag = space < 0 ? line : line.substring(0, space);
+            line = space < 0 ? "" : line.substring(space + 1).trim();
+        }
+        if (line.isEmpty()) { 
+            if (tag != null) out.writeUTF(tag);
+            fail(Replies.EMPTY_COMMAND);
+            out.flush();
+            return true; 
+        }
+
+        int space = nextSpace(line, 0);
+        String cmd = line.substring(0, space).toLowerCase();
+        String arg = space < line.length() ? line.substring(skipSpaces(line, space)).trim() : "";
+
+        if (cmd.equals("batch")) {
+            handleBatch(arg, tag);
+            return true;
+        }
+        if (tag != null) out.writeUTF(tag);
+
+        switch (cmd) {
+            case "ls":       handleLs(); break;
+            case "list":     handleList(arg); break;
+            case "find":     handleFind(arg); break;
+            case "du":       handleDu(arg); break;
+            case "cd":       handleCd(arg); break;
+            case "mkdir":    handleMkdir(arg); break;
+            case "delete":   handleDelete(arg); break;
+            case "download": handleDownload(arg); break;
+            case "upload":   handleUpload(arg); break;
+            case "stat":     handleStat(arg); break;
+            case "resume-download": handleResumeDownload(arg); break;
+            case "resume-upload":   handleResumeUpload(arg); break;
+            case "download-range":  handleDownloadRange(arg); break;
+            case "allocate": handleAllocate(arg); break;
+            case "upload-range":    handleUploadRange(arg); break;
+            case "commit":   handleCommit(arg); break;
+            case "pwd":      handlePwd(); break;
+            case "upload-tree":   handleUploadTree(arg); break;
+            case "download-tree": handleDownloadTree(arg); break;
+            case "compress": handleCompress(arg); break;
+            case "integrity": handleIntegrity(arg); break;
+            case "mux":      return handleMux(arg);
+            case "checksum": handleChecksum(arg); break;
+            case "signature": handleSignature(arg); break;
+            case "delta":    handleDelta(arg); break;
+            case "cachestats": handleCacheStats(); break;
+            case "storagestats": handleStorageStats(); break;
+            case "trashstats": handleTrashStats(); break;
+            case "stats":    handleStats(); break;
+            case "gc":       handleGc(); break;
+            case "throttle": handleThrottle(arg); break;
+            case "exit":
+                ok(Replies.BYE);
+                out.flush();
+                return false;
+            default:
+                fail(Replies.UNKNOWN_COMMAND);
+                out.flush();
+        }
+        return true;
+    }
+
+    Transfer takeDeferred() {
+        Transfer d = deferred;
+        deferred = null;
+        return d;
+    }
+
+    void disconnected() {
+        log(who, "DISCONNECT");
+    }
+
+    void error(IOException e) {
+        metrics.sessionFailed();
+        System.err.println("[" + who + "] erreur: " + e.getMessage());
+    }
+
+    void closed() {
+        if (closed) return;
+        closed = true;
+        metrics.sessionClosed();
+        if (limiter != null) limiter.close();
+    }
+
     private void handleLs() throws IOException {
-        StringBuilder sb = new StringBuilder();
-        try (DirectoryStream<Path> ds = Files.newDirectoryStream(currentDir)) {
-            for (Path p : ds) {
-                if (Files.isDirectory(p)) {
-                    sb.append("[Folder] ");
-                } else {
-                    sb.append("[File] ");
-                }
-                sb.append(p.getFileName().toString()).append('\n');
+        StringBuilder sb = new StringBuilder("OK\n");
+        int[] bytes = { 3 };
+        boolean[] truncated = { false };
+        directories.scan(currentDir, entry -> {
+            String line = entry.render();
+            bytes[0] += Listing.utfLength(line);
+            if (bytes[0] > Listing.MAX_UTF - 64) {
+                truncated[0] = true;
+                return false;
+            }
+            sb.append(line);
+            return true;
+        });
+        if (truncated[0]) {
+            sb.append("... (liste tronquée, utilisez list)\n");
+        }
+        ok(sb.toString());
+        out.flush();
+    }
+
+    private void handleList(String arg) throws IOException {
+        String[] parts = arg.isEmpty() ? new String[0] : words(arg, 0);
+        long pageSize = parts.length > 0 ? parseOffset(parts[0]) : 0;
+        long token = parts.length > 1 ? parseOffset(parts[1]) : 0;
+        if (parts.length > 2 || pageSize < 0 || token < 0) {
+            fail("ERR Usage: list [pageSize] [token]");
+            out.flush();
+            return;
+        }
+        if (!Files.isDirectory(currentDir)) {
+            fail(Replies.NOT_A_DIRECTORY);
+            out.flush();
+            return;
+        }
+        ok(Replies.OK);
+
+        StringBuilder frame = new StringBuilder();
+        long[] index = { 0 };
+        long[] sent = { 0 };
+        boolean[] more = { false };
+        directories.scan(currentDir, entry -> {
+            if (index[0]++ < token) return true;
+            if (pageSize > 0 && sent[0] == pageSize) {
+                more[0] = true;
+                return false;
+            }
+            frame.append(entry.render());
+            sent[0]++;
+            if (frame.length() >= Listing.FRAME_CHARS) {
+                out.writeUTF(frame.toString());
+                out.flush();
+                frame.setLength(0);
+            }
+            return true;
+        });
+        if (frame.length() > 0) {
+            out.writeUTF(frame.toString());
+        }
+        out.writeUTF(more[0] ? "MORE " + (token + sent[0]) : "END");
+        out.flush();
+    }
+
+    private void handleFind(String arg) throws IOException {
+        String[] parts = arg.isEmpty() ? new String[0] : words(arg, 0);
+        long pageSize = parts.length > 1 ? parseOffset(parts[1]) : 0;
+        long token = parts.length > 2 ? parseOffset(parts[2]) : 0;
+        if (parts.length == 0 || parts.length > 3 || pageSize < 0 || token < 0) {
+            fail("ERR Usage: find <pattern> [pageSize] [token]");
+            out.flush();
+            return;
+        }
+        if (names == null) {
+            fail("ERR Index des noms désactivé");
+            out.flush();
+            return;
+        }
+        if (!names.ready()) {
+            fail("ERR Index en cours de construction, réessayez plus tard");
+            out.flush();
+            return;
+        }
+        ok(Replies.OK);
+
+        StringBuilder frame = new StringBuilder();
+        long next = names.find(new NameIndex.Glob(parts[0]), token, pageSize, line -> {
+            frame.append(line);
+            if (frame.length() >= Listing.FRAME_CHARS) {
+                out.writeUTF(frame.toString());
+                out.flush();
+                frame.setLength(0);
             }
+        });
+        if (frame.length() > 0) {
+            out.writeUTF(frame.toString());
+        }
+        out.writeUTF(next >= 0 ? "MORE " + next : "END");
+        out.flush();
+    }
+
+    private void handleDu(String arg) throws IOException {
+        if (usage == null) {
+            fail("ERR Suivi de l'occupation désactivé");
+            out.flush();
+            return;
+        }
+        if (!usage.ready()) {
+            fail("ERR Calcul de l'occupation en cours, réessayez plus tard");
+            out.flush();
+            return;
+        }
+        Usage.Totals totals = usage.totals(arg.isEmpty() ? currentDir : secureResolve(arg));
+        if (totals == null) {
+            fail(Replies.NOT_A_DIRECTORY);
+        } else {
+            ok("OK " + totals.bytes() + " " + totals.files() + " " + totals.directories() + " "
+                    + (totals.limit() > 0 ? String.valueOf(totals.limit()) : "-"));
         }
-        out.writeUTF("OK\n" + sb.toString());
         out.flush();
     }
 
     private void handleCd(String arg) throws IOException {
         if (arg.isEmpty()) { 
-            out.writeUTF("ERR Usage: cd <path>");
+            fail("ERR Usage: cd <path>");
             out.flush();
             return; 
         }
         Path target = secureResolve(arg);
-        if (Files.exists(target) && Files.isDirectory(target)) {
+        if (target.equals(baseDir) || directories.isDirectory(target)) {
             currentDir = target.normalize();
-            out.writeUTF("OK Vous êtes dans le dossier " + currentDir.getFileName().toString());
+            ok("OK Vous êtes dans le dossier " + currentDir.getFileName().toString());
             out.flush();
         } else {
-            out.writeUTF("ERR Not a directory");
+            fail(Replies.NOT_A_DIRECTORY);
             out.flush();
         }
     }
 
     private void handleMkdir(String arg) throws IOException {
         if (arg.isEmpty()) { 
-            out.writeUTF("ERR Usage: mkdir <name>");
+            fail("ERR Usage: mkdir <name>");
             out.flush();
             return; 
         }
         Path target = secureResolve(arg);
         try {
             Files.createDirectories(target);
-            out.writeUTF("OK Le dossier " + arg + " a été créé.");
+            ok("OK Le dossier " + arg + " a été créé.");
             out.flush();
         } catch (IOException e) {
-            out.writeUTF("ERR " + e.getMessage());
+            fail("ERR " + e.getMessage());
             out.flush();
+        } finally {
+            invalidate(target);
         }
     }
 
     private void handleDelete(String arg) throws IOException {
+        boolean progress = false;
+        boolean async = ServerConfig.ASYNC_DELETE;
+        while (arg.startsWith("-p ") || arg.startsWith("-a ")) {
+            if (arg.charAt(1) == 'p') progress = true;
+            else async = true;
+            arg = arg.substring(3).trim();
+        }
         if (arg.isEmpty()) { 
-            out.writeUTF("ERR Usage: delete <file|dir>");
+            fail("ERR Usage: delete [-p] [-a] <file|dir>");
             out.flush();
             return; 
         }
         Path target = secureResolve(arg);
         if (!Files.exists(target)) { 
-            out.writeUTF("ERR Not found");
+            fail("ERR Not found");
             out.flush();
             return; 
         }
+        if (target.equals(baseDir)) {
+            fail("ERR Impossible de supprimer la racine");
+            out.flush();
+            return;
+        }
 
         try {
-            if (Files.isDirectory(target)) {
-                Files.walk(target)
-                     .sorted((a, b) -> b.getNameCount() - a.getNameCount())
-                     .forEach(p -> { 
-                         try { 
-                             Files.deleteIfExists(p); 
-                         } catch (IOException ignored) {} 
-                     });
-                out.writeUTF("OK Le dossier " + arg + " a bien été supprimé.");
+            if (Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+                if (async && deleter.moveToTrash(target)) {
+                    ok("OK Le dossier " + arg + " a été placé dans la corbeille.");
+                } else {
+                    TreeDeleter.Progress p = new TreeDeleter.Progress(target);
+                    awaitDelete(deleter.delete(target, p), p, progress);
+                    if (p.failed() == 0) {
+                        ok("OK Le dossier " + arg + " a bien été supprimé (" + p.deleted() + " éléments).");
+                    } else {
+                        fail("ERR Suppression partielle de " + arg + ": " + p.describe());
+                    }
+                }
             } else {
                 Files.delete(target);
-                out.writeUTF("OK Le fichier " + arg + " a bien été supprimé.");
+                ok("OK Le fichier " + arg + " a bien été supprimé.");
             }
             out.flush();
         } catch (IOException e) {
-            out.writeUTF("ERR " + e.getMessage());
+            fail("ERR " + e.getMessage());
             out.flush();
+        } finally {
+            invalidateTree(target);
+        }
+    }
+
+    private void awaitDelete(ForkJoinTask<?> task, TreeDeleter.Progress p, boolean progress) throws IOException {
+        while (true) {
+            try {
+                task.get(1, TimeUnit.SECONDS);
+                return;
+            } catch (TimeoutException e) {
+                if (progress) {
+                    out.writeUTF("PROGRESS " + p.deleted());
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Suppression interrompue");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
         }
     }
 
     private void handleDownload(String arg) throws IOException {
         if (arg.isEmpty()) { 
-            out.writeUTF("ERR Usage: download <file>");
+            fail("ERR Usage: download <file>");
             out.flush();
             return; 
         }
         Path file = secureResolve(arg);
         if (!Files.exists(file) || Files.isDirectory(file)) {
-            out.writeUTF("ERR Not a file");
+            fail(Replies.NOT_A_FILE);
             out.flush();
             return;
         }
-        long size = Files.size(file);
-        out.writeUTF("OK");
+        long size = storage.size(file);
+        ok(Replies.OK);
         out.flush();
         out.writeLong(size);
-        out.flush();
-        try (var fis = Files.newInputStream(file)) {
-            byte[] buffer = new byte[64 * 1024];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-            }
+        send(new Transfer(false, file, 0, size, false, null, null));
+    }
+
+    private void handleResumeDownload(String arg) throws IOException {
+        String identity = null;
+        if (arg.startsWith("-i ")) {
+            String[] option = words(arg.substring(3), 2);
+            identity = option[0];
+            arg = option.length > 1 ? option[1] : "";
+        }
+        String[] parts = words(arg, 2);
+        long offset = parseOffset(parts[0]);
+        if (parts.length < 2 || offset < 0) {
+            fail("ERR Usage: resume-download [-i <identité>] <offset> <file>");
+            out.flush();
+            return;
+        }
+        Path file = secureResolve(parts[1]);
+        if (!Files.exists(file) || Files.isDirectory(file)) {
+            fail(Replies.NOT_A_FILE);
+            out.flush();
+            return;
+        }
+        long size = storage.size(file);
+        String current = size + "-" + Files.getLastModifiedTime(file).toMillis();
+        if (offset > size || (identity != null && offset > 0 && !identity.equals(current))) {
+            fail(Replies.INVALID_OFFSET);
+            out.flush();
+            return;
+        }
+        if (identity != null) {
+            ok("OK " + current);
+        } else {
+            ok(Replies.OK);
         }
         out.flush();
+        out.writeLong(size - offset);
+        send(new Transfer(false, file, offset, size - offset, false, null, null));
     }
 
     private void handleUpload(String arg) throws IOException {
         if (arg.isEmpty()) { 
-            out.writeUTF("ERR Usage: upload <destinationName>");
+            fail("ERR Usage: upload <destinationName>");
             out.flush();
             return; 
         }
         Path dest = secureResolve(arg);
         Files.createDirectories(dest.getParent());
 
-        out.writeUTF("OK");
+        ok(Replies.OK);
+        out.flush();
+        if (storage.streaming() && !deferTransfers && !integrity) {
+            receive(new Transfer(true, dest, 0, -1, true, null, uploadedReply(arg)));
+        } else {
+            receive(new Transfer(true, durability.temp(dest), 0, -1, true, dest, uploadedReply(arg)));
+        }
+    }
+
+    private void handleResumeUpload(String arg) throws IOException {
+        String identity = null;
+        if (arg.startsWith("-i ")) {
+            String[] option = words(arg.substring(3), 2);
+            identity = option[0];
+            arg = option.length > 1 ? option[1] : "";
+        }
+        String[] parts = words(arg, 2);
+        long offset = parseOffset(parts[0]);
+        if (parts.length < 2 || offset < 0) {
+            fail("ERR Usage: resume-upload [-i <identité>] <offset> <destinationName>");
+            out.flush();
+            return;
+        }
+        Path dest = secureResolve(parts[1]);
+        Path part = dest.resolveSibling(dest.getFileName() + ".part");
+        Path marker = identityFile(part);
+        Files.createDirectories(dest.getParent());
+        long have = Files.exists(part) ? Files.size(part) : 0;
+        if (offset > have || (identity != null && offset > 0 && !identity.equals(readIdentity(marker)))) {
+            fail(Replies.INVALID_OFFSET);
+            out.flush();
+            return;
+        }
+        if (offset == 0) {
+            if (identity != null) {
+                Files.writeString(marker, identity);
+                invalidate(marker);
+            } else if (Files.deleteIfExists(marker)) {
+                invalidate(marker);
+            }
+        }
+
+        ok(Replies.OK);
+        out.flush();
+        receive(new Transfer(true, part, offset, -1, true, dest, uploadedReply(parts[1])));
+    }
+
+    private void handleDownloadRange(String arg) throws IOException {
+        String[] parts = words(arg, 3);
+        long offset = parseOffset(parts[0]);
+        long length = parts.length > 1 ? parseOffset(parts[1]) : -1;
+        if (parts.length < 3 || offset < 0 || length < 0) {
+            fail("ERR Usage: download-range <offset> <length> <file>");
+            out.flush();
+            return;
+        }
+        Path file = secureResolve(parts[2]);
+        if (!Files.exists(file) || Files.isDirectory(file)) {
+            fail(Replies.NOT_A_FILE);
+            out.flush();
+            return;
+        }
+        long size = storage.size(file);
+        if (offset > size || length > size - offset) {
+            fail("ERR Invalid range");
+            out.flush();
+            return;
+        }
+        ok(Replies.OK);
+        out.flush();
+        out.writeLong(length);
+        send(new Transfer(false, file, offset, length, false, null, null));
+    }
+
+    private void handleAllocate(String arg) throws IOException {
+        String[] parts = words(arg, 2);
+        long size = parseOffset(parts[0]);
+        if (parts.length < 2 || size < 0) {
+            fail("ERR Usage: allocate <size> <destinationName>");
+            out.flush();
+            return;
+        }
+        Path dest = secureResolve(parts[1]);
+        Usage.Reservation quota = usage != null ? usage.reserve(dest, client, size - usage.size(dest)) : null;
+        if (quota != null && !quota.accepted()) {
+            detail = "quota";
+            refuse(quota.refusal);
+            return;
+        }
+        try {
+            allocations.allocate(dest, size, quota);
+        } catch (IOException e) {
+            if (quota != null) quota.release();
+            throw e;
+        }
+        ok(Replies.OK);
+        out.flush();
+    }
+
+    private void handleUploadRange(String arg) throws IOException {
+        String[] parts = words(arg, 2);
+        long offset = parseOffset(parts[0]);
+        if (parts.length < 2 || offset < 0) {
+            fail("ERR Usage: upload-range <offset> <destinationName>");
+            out.flush();
+            return;
+        }
+        Path ranges = allocations.file(secureResolve(parts[1]));
+        long allocated = ranges != null ? allocations.size(ranges) : -1;
+        if (allocated < 0 || !Files.exists(ranges)) {
+            fail("ERR Not allocated");
+            out.flush();
+            return;
+        }
+        if (offset > allocated) {
+            fail(Replies.INVALID_OFFSET);
+            out.flush();
+            return;
+        }
+        ok(Replies.OK);
+        out.flush();
+        receive(new Transfer(true, ranges, offset, -1, false, null, "OK"));
+    }
+
+    private void handleCommit(String arg) throws IOException {
+        String[] parts = words(arg, 2);
+        long size = parseOffset(parts[0]);
+        if (parts.length < 2 || size < 0) {
+            fail("ERR Usage: commit <size> <destinationName>");
+            out.flush();
+            return;
+        }
+        Path dest = secureResolve(parts[1]);
+        Path ranges = allocations.file(dest);
+        if (ranges == null || !allocations.covered(ranges, size) || !Files.exists(ranges)) {
+            fail("ERR Incomplete upload");
+            out.flush();
+            return;
+        }
+        Usage.Reservation quota = allocations.remove(ranges);
+        try {
+            try {
+                durability.publish(ranges, dest);
+            } catch (IOException e) {
+                Files.deleteIfExists(ranges);
+                throw e;
+            }
+            storage.ingest(dest);
+            invalidate(dest);
+        } finally {
+            if (quota != null) quota.release();
+        }
+        ok(uploadedReply(parts[1]));
+        out.flush();
+    }
+
+    private void handlePwd() throws IOException {
+        String rel = baseDir.relativize(currentDir).toString().replace('\\', '/');
+        ok("OK " + (rel.isEmpty() ? "." : rel));
+        out.flush();
+    }
+
+    private void handleCacheStats() throws IOException {
+        ok("OK hits=" + directories.hits() + " misses=" + directories.misses()
+                + " evictions=" + directories.evictions() + " invalidations=" + directories.invalidations()
+                + " unwatched=" + directories.unwatched()
+                + " directories=" + directories.directories() + " entries=" + directories.entries()
+                + (names != null ? " " + names.stats() : ""));
+        out.flush();
+    }
+
+    private void handleStats() throws IOException {
+        double seconds = Math.max(1e-3, (System.nanoTime() - sessionStart) / 1e9);
+        String session = String.format(Locale.ROOT,
+                "session bytes.in=%d bytes.out=%d duration=%.1fs rate=%.2fMo/s", sessionIn, sessionOut, seconds,
+                (sessionIn + sessionOut) / seconds / (1024 * 1024));
+        ok("OK " + metrics.report() + session + (accessLog != null ? "\n" + accessLog.stats() : ""));
+        out.flush();
+    }
+
+    private void handleThrottle(String arg) throws IOException {
+        String[] parts = arg.isEmpty() ? new String[0] : words(arg, 0);
+        if (parts.length == 0) {
+            ok("OK " + qos.describe());
+            out.flush();
+            return;
+        }
+        long value;
+        try {
+            value = parts.length == 2 ? Qos.parseRate(parts[1]) : -1;
+        } catch (NumberFormatException e) {
+            value = -1;
+        }
+        if (value < 0 || !THROTTLE_SCOPES.contains(parts[0])) {
+            fail("ERR Usage: throttle [global|ip|session|transfers <valeur>]");
+        } else if (!loopback) {
+            fail("ERR Réservé à l'administration locale");
+        } else {
+            qos.set(parts[0], value);
+            log(who, "THROTTLE " + parts[0] + " " + value);
+            ok("OK " + qos.describe());
+        }
+        out.flush();
+    }
+
+    private void handleTrashStats() throws IOException {
+        ok("OK " + deleter.stats());
+        out.flush();
+    }
+
+    private void handleStorageStats() throws IOException {
+        ok("OK " + storage.stats() + " " + durability.stats() + " " + checksums.stats() + " "
+                + allocations.stats() + (usage != null ? " " + usage.stats() : ""));
         out.flush();
-        
+    }
+
+    private void handleGc() throws IOException {
+        if (!(storage instanceof DedupStorage dedup)) {
+            fail("ERR Stockage dédupliqué désactivé");
+        } else if (dedup.sweep()) {
+            ok("OK Nettoyage des blocs lancé");
+        } else {
+            fail("ERR Nettoyage déjà en cours");
+        }
+        out.flush();
+    }
+
+    private void handleUploadTree(String arg) throws IOException {
+        if (arg.isEmpty()) {
+            fail("ERR Usage: upload-tree <directory>");
+            out.flush();
+            return;
+        }
+        if (deferTransfers) {
+            fail(Replies.UNAVAILABLE);
+            out.flush();
+            return;
+        }
+        Path root = secureResolve(arg);
+        if (Files.exists(root) && !Files.isDirectory(root)) {
+            fail(Replies.NOT_A_DIRECTORY);
+            out.flush();
+            return;
+        }
+        Files.createDirectories(root);
+        ok(Replies.OK);
+        out.flush();
+
+        TreeStream.Totals totals;
+        List<Usage.Reservation> held = new ArrayList<>();
+        try {
+            totals = TreeStream.receive(root, storage, durability, in, (target, size) -> {
+                if (usage == null) return true;
+                Usage.Reservation quota = usage.reserve(target, client, size - usage.size(target));
+                if (!quota.accepted()) return false;
+                held.add(quota);
+                return true;
+            });
+        } finally {
+            invalidateTree(root);
+            invalidate(root);
+            for (Usage.Reservation quota : held) {
+                quota.release();
+            }
+        }
+        bytesIn = totals.bytes();
+        detail = totals.describe();
+        if (totals.rejected() > 0) {
+            fail("ERR Dossier " + arg + " partiellement téléversé: " + totals.describe());
+        } else {
+            ok("OK Le dossier " + arg + " a bien été téléversé: " + totals.describe());
+        }
+        out.flush();
+    }
+
+    private void handleDownloadTree(String arg) throws IOException {
+        String[] parts = words(arg, 2);
+        long threshold = parseOffset(parts[0]);
+        if (parts.length < 2 || threshold < 0) {
+            fail("ERR Usage: download-tree <largeFileThreshold> <directory>");
+            out.flush();
+            return;
+        }
+        if (deferTransfers) {
+            fail(Replies.UNAVAILABLE);
+            out.flush();
+            return;
+        }
+        Path root = secureResolve(parts[1]);
+        if (!Files.isDirectory(root)) {
+            fail(Replies.NOT_A_DIRECTORY);
+            out.flush();
+            return;
+        }
+        ok(Replies.OK);
+        TreeStream.Totals totals = TreeStream.send(root, storage, threshold, out);
+        bytesOut = totals.bytes();
+        detail = totals.describe();
+    }
+
+    private void handleBatch(String arg, String tag) throws IOException {
+        long count = parseOffset(arg);
+        if (count < 0 || count > MAX_BATCH) {
+            if (tag != null) out.writeUTF(tag);
+            fail("ERR Usage: batch <count> (max " + MAX_BATCH + ")");
+            out.flush();
+            return;
+        }
+        batch = new Batch(tag, (int) count);
+        if (count == 0) finishBatch();
+    }
+
+    private void batchItem(String line) throws IOException {
+        int space = nextSpace(line, 0);
+        String cmd = line.substring(0, space).toLowerCase();
+        String arg = space < line.length() ? line.substring(skipSpaces(line, space)).trim() : "";
+
+        String reply;
+        status = "ERR";
+        if (!BATCH_COMMANDS.contains(cmd)) {
+            reply = "ERR Commande non autorisée dans un batch";
+        } else {
+            DataOutputStream saved = out;
+            batch.capture.reset();
+            out = new DataOutputStream(batch.capture);
+            try {
+                switch (cmd) {
+                    case "cd":    handleCd(arg); break;
+                    case "mkdir": handleMkdir(arg); break;
+                    case "stat":  handleStat(arg); break;
+                    default:      handleDelete(arg); break;
+                }
+                DataInputStream captured = new DataInputStream(new ByteArrayInputStream(batch.capture.toByteArray()));
+                reply = captured.readUTF();
+                while (captured.available() > 0) reply = captured.readUTF();
+            } catch (IOException e) {
+                status = "ERR";
+                reply = "ERR " + e.getMessage();
+            } finally {
+                out = saved;
+            }
+        }
+        batch.done++;
+        if (!"OK".equals(status)) {
+            batch.failed++;
+            if (batch.failed <= MAX_BATCH_ERRORS) {
+                batch.errors.append(batch.failed > 1 ? "; " : "").append('#').append(batch.done)
+                        .append(' ').append(line).append(": ").append(reply);
+            }
+        }
+        if (batch.done == batch.total) finishBatch();
+    }
+
+    private void finishBatch() throws IOException {
+        Batch b = batch;
+        batch = null;
+        if (b.tag != null) out.writeUTF(b.tag);
+        if (b.failed == 0) {
+            ok("OK " + b.total + " opérations réussies");
+        } else {
+            String errors = b.errors.length() > 8192 ? b.errors.substring(0, 8192) + "..." : b.errors.toString();
+            fail("ERR " + b.failed + "/" + b.total + " opérations en échec: " + errors);
+        }
+        out.flush();
+    }
+
+    private void handleCompress(String arg) throws IOException {
+        if (arg.isEmpty()) {
+            fail("ERR Usage: compress <algorithm>[,<algorithm>...]");
+            out.flush();
+            return;
+        }
+        if (deferTransfers) {
+            fail(Replies.UNAVAILABLE);
+            out.flush();
+            return;
+        }
+        String algorithm = Compression.negotiate(arg);
+        compress = !algorithm.equals(Compression.NONE);
+        ok("OK " + algorithm);
+        out.flush();
+    }
+
+    private void handleIntegrity(String arg) throws IOException {
+        if (arg.isEmpty()) {
+            fail("ERR Usage: integrity <algorithm>[,<algorithm>...]");
+            out.flush();
+            return;
+        }
+        if (deferTransfers) {
+            fail(Replies.UNAVAILABLE);
+            out.flush();
+            return;
+        }
+        String algorithm = Checksums.negotiate(arg);
+        integrity = !algorithm.equals(Checksums.NONE);
+        ok("OK " + algorithm);
+        out.flush();
+    }
+
+    private boolean handleMux(String arg) throws IOException {
+        if (deferTransfers || socket == null) {
+            fail(Replies.UNAVAILABLE);
+            out.flush();
+            return true;
+        }
+        long offered = arg.isEmpty() ? ServerConfig.MUX_WINDOW : parseOffset(arg);
+        if (offered < Mux.FRAME_SIZE) {
+            fail("ERR Usage: mux [fenêtre >= " + Mux.FRAME_SIZE + "]");
+            out.flush();
+            return true;
+        }
+        int window = (int) Math.min(offered, ServerConfig.MUX_WINDOW);
+        ok("OK mux " + window);
+        out.flush();
+        coalescing.flushNow();
+        log(who, "MUX " + window);
+        Mux mux = new Mux(in, coalescing, window, ServerConfig.MUX_MAX_STREAMS);
+        Thread.Builder threads = ServerConfig.MODE.equals("virtual") ? Thread.ofVirtual() : Thread.ofPlatform().daemon();
+        mux.serve((stream, parent) -> {
+            ClientHandler handler = new ClientHandler(this, stream,
+                    parent != null && parent.handler != null ? parent.handler.currentDir : currentDir);
+            stream.handler = handler;
+            threads.name("mux-" + who + "#" + stream.id).start(() -> handler.serve(stream));
+        });
+        log(who, "DISCONNECT");
+        return false;
+    }
+
+    private void handleChecksum(String arg) throws IOException {
+        if (arg.isEmpty()) {
+            fail("ERR Usage: checksum <file>");
+            out.flush();
+            return;
+        }
+        Path file = secureResolve(arg);
+        if (!Files.exists(file) || Files.isDirectory(file)) {
+            fail(Replies.NOT_A_FILE);
+        } else {
+            long value = checksums.checksum(file, storage);
+            ok("OK " + Checksums.CRC32C + " " + Checksums.hex(value) + " " + storage.size(file));
+        }
+        out.flush();
+    }
+
+    private void handleSignature(String arg) throws IOException {
+        String[] parts = words(arg, 2);
+        long blockSize = parseOffset(parts[0]);
+        if (parts.length < 2 || blockSize < DeltaSync.MIN_BLOCK || blockSize > DeltaSync.MAX_BLOCK) {
+            fail("ERR Usage: signature <blockSize> <file>");
+            out.flush();
+            return;
+        }
+        if (deferTransfers) {
+            fail(Replies.UNAVAILABLE);
+            out.flush();
+            return;
+        }
+        Path file = secureResolve(parts[1]);
+        if (!Files.exists(file) || Files.isDirectory(file)) {
+            fail(Replies.NOT_A_FILE);
+            out.flush();
+            return;
+        }
+        long version = Files.getLastModifiedTime(file).toMillis();
+        try (ContentSource basis = storage.open(file)) {
+            ok("OK " + version);
+            DeltaSync.writeSignature(basis, (int) blockSize, out);
+        }
+    }
+
+    private void handleDelta(String arg) throws IOException {
+        String[] parts = words(arg, 3);
+        long version = parseOffset(parts[0]);
+        long blockSize = parts.length > 1 ? parseOffset(parts[1]) : -1;
+        if (parts.length < 3 || version < 0 || blockSize < DeltaSync.MIN_BLOCK || blockSize > DeltaSync.MAX_BLOCK) {
+            fail("ERR Usage: delta <version> <blockSize> <file>");
+            out.flush();
+            return;
+        }
+        if (deferTransfers) {
+            fail(Replies.UNAVAILABLE);
+            out.flush();
+            return;
+        }
+        Path file = secureResolve(parts[2]);
+        if (!Files.exists(file) || Files.isDirectory(file)) {
+            fail(Replies.NOT_A_FILE);
+            out.flush();
+            return;
+        }
+        if (Files.getLastModifiedTime(file).toMillis() != version) {
+            fail("ERR Basis changed");
+            out.flush();
+            return;
+        }
+        ok(Replies.OK);
+        out.flush();
+
+        Path tmp = durability.temp(file);
+        Usage.Growth quota = usage != null ? usage.growth(file, client) : null;
+        DeltaSync.Result result;
+        try (ContentSource basis = storage.open(file);
+             FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            result = DeltaSync.apply(in, basis, (int) blockSize, fc, quota != null ? quota : size -> true);
+        } catch (IOException e) {
+            durability.discard(tmp);
+            if (quota != null) quota.release();
+            throw e;
+        }
+        bytesIn = result.literalBytes();
+        if (quota != null && quota.refusal != null) {
+            durability.discard(tmp);
+            quota.release();
+            detail = "quota";
+            refuse(quota.refusal);
+            return;
+        }
+        try {
+            durability.publish(tmp, file);
+            storage.ingest(file);
+            invalidate(file);
+        } finally {
+            if (quota != null) quota.release();
+        }
+        detail = "delta literal=" + result.literalBytes() + " reused=" + result.reusedBytes();
+        ok(uploadedReply(parts[2]) + " Delta: " + result.literalBytes() + " octets transmis, "
+                + result.reusedBytes() + " réutilisés.");
+        out.flush();
+    }
+
+    private void handleStat(String arg) throws IOException {
+        if (arg.isEmpty()) {
+            fail("ERR Usage: stat <file>");
+            out.flush();
+            return;
+        }
+        Path file = secureResolve(arg);
+        if (!Files.exists(file) || Files.isDirectory(file)) {
+            fail(Replies.NOT_A_FILE);
+        } else {
+            ok("OK " + storage.size(file));
+        }
+        out.flush();
+    }
+
+    private void send(Transfer t) throws IOException {
+        bytesOut = t.size();
+        if (deferTransfers) {
+            deferred = t;
+            return;
+        }
+        if (coalescing != null) coalescing.flushNow();
+        long mtime = integrity ? Files.getLastModifiedTime(t.path()).toMillis() : 0;
+        try (ContentSource source = storage.open(t.path())) {
+            boolean whole = integrity && t.position() == 0 && t.size() == source.size()
+                    && Files.getLastModifiedTime(t.path()).toMillis() == mtime;
+            long known = whole ? checksums.cached(t.path(), t.size(), mtime) : -1;
+            CRC32C crc = integrity && known < 0 ? new CRC32C() : null;
+            if (!compress) {
+                FileTransfer.send(source, t.position(), t.size(), socket, out, limiter, crc);
+            } else if (Compression.worthCompressing(t.path().getFileName().toString(), source, t.position(), t.size())) {
+                out.writeByte(Compression.FRAMED);
+                Compression.Stats stats = Compression.send(source, t.position(), t.size(), out, crc);
+                detail = stats.describe();
+            } else {
+                out.writeByte(Compression.RAW);
+                FileTransfer.send(source, t.position(), t.size(), socket, out, limiter, crc);
+            }
+            if (integrity) {
+                long value = crc != null ? crc.getValue() : known;
+                if (whole && crc != null) checksums.store(t.path(), t.size(), mtime, value);
+                out.writeUTF(Checksums.trailer(value));
+                out.flush();
+            }
+        }
+    }
+
+    private void receive(Transfer t) throws IOException {
+        if (deferTransfers) {
+            deferred = t;
+            return;
+        }
         long size = in.readLong();
-        try (var fos = Files.newOutputStream(dest, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            long remaining = size;
-            byte[] buf = new byte[64 * 1024];
-            while (remaining > 0) {
-                int toRead = (int) Math.min(buf.length, remaining);
-                int r = in.read(buf, 0, toRead);
-                if (r == -1) throw new IOException("Stream ended prematurely");
-                fos.write(buf, 0, r);
-                remaining -= r;
+        String refusal = admit(t, size);
+        Compression.FramedInputStream framed = null;
+        if (compress && in.readByte() == Compression.FRAMED) {
+            framed = Compression.framedInput(in);
+        }
+        InputStream body = framed != null ? framed : in;
+        if (refusal != null) {
+            try {
+                FileTransfer.copy(body, OutputStream.nullOutputStream(), size);
+                if (integrity) in.readUTF();
+            } finally {
+                if (framed != null) framed.close();
+            }
+            bytesIn = size;
+            uploadRefused(t, refusal);
+            return;
+        }
+        try {
+            receive(t, size, framed, body);
+        } finally {
+            releaseReservation();
+        }
+    }
+
+    private void receive(Transfer t, long size, Compression.FramedInputStream framed, InputStream body)
+            throws IOException {
+        boolean streamed = t.truncate() && t.position() == 0 && storage.streaming()
+                && (t.publish() == null || durability.isTemp(t.path()));
+        CRC32C crc = integrity ? new CRC32C() : null;
+        long expected = -1;
+        try {
+            if (streamed) {
+                storage.store(crc != null ? new CheckedInputStream(body, crc) : body, size, t.path());
+            } else {
+                try (FileChannel fc = FileChannel.open(t.path(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    if (t.truncate()) fc.truncate(t.position());
+                    FileTransfer.receive(body, fc, t.position(), size, crc);
+                }
             }
+            if (crc != null) expected = Checksums.parseTrailer(in.readUTF());
+        } catch (IOException e) {
+            uploadAborted(t);
+            throw e;
+        } finally {
+            if (framed != null) framed.close();
+        }
+        bytesIn = size;
+        if (framed != null) detail = framed.stats().describe();
+        if (crc != null && expected != crc.getValue()) {
+            rejected(t);
+            fail("ERR Somme de contrôle invalide (attendue " + Checksums.hex(expected) + ", reçue "
+                    + Checksums.hex(crc.getValue()) + ")");
+            out.flush();
+            return;
+        }
+        if (streamed && t.publish() == null) {
+            invalidate(t.path());
+            ok(t.reply());
+            out.flush();
+            return;
         }
-        out.writeUTF("OK Le fichier " + arg + " a bien été téléversé.");
+        boolean whole = crc != null && t.truncate() && t.position() == 0;
+        long mtime = whole ? Files.getLastModifiedTime(t.path()).toMillis() : 0;
+        uploadComplete(t);
+        if (whole) checksums.store(t.publish() != null ? t.publish() : t.path(), size, mtime, crc.getValue());
+    }
+
+    private void rejected(Transfer t) throws IOException {
+        checksums.mismatch();
+        detail = "checksum mismatch";
+        if (durability.isTemp(t.path())) {
+            durability.discard(t.path());
+        } else if (t.truncate()) {
+            try (FileChannel fc = FileChannel.open(t.path(), StandardOpenOption.WRITE)) {
+                fc.truncate(t.position());
+            }
+            invalidate(t.path());
+        }
+    }
+
+    String admit(Transfer t, long size) {
+        uploadSize = size;
+        if (isRange(t)) {
+            long allocated = allocations.size(t.path());
+            if (allocated < 0) return "Not allocated";
+            if (size < 0 || size > allocated - t.position()) {
+                detail = "range";
+                return "Invalid range (" + t.position() + " + " + size + " > " + allocated + ")";
+            }
+            return null;
+        }
+        if (usage == null) return null;
+        long growth = t.position() + size - usage.size(t.path());
+        if (t.publish() != null) growth -= usage.size(t.publish());
+        Usage.Reservation quota = usage.reserve(t.publish() != null ? t.publish() : t.path(), client, growth);
+        if (!quota.accepted()) {
+            detail = "quota";
+            return quota.refusal;
+        }
+        reservation = quota;
+        return null;
+    }
+
+    void uploadRefused(Transfer t, String refusal) throws IOException {
+        if (durability.isTemp(t.path())) durability.discard(t.path());
+        refuse(refusal);
+    }
+
+    void uploadComplete(Transfer t) throws IOException {
+        try {
+            if (t.publish() != null) {
+                durability.publish(t.path(), t.publish());
+                storage.ingest(t.publish());
+                invalidate(t.publish());
+                if (!durability.isTemp(t.path()) && Files.deleteIfExists(identityFile(t.path()))) {
+                    invalidate(identityFile(t.path()));
+                }
+            } else if (t.truncate()) {
+                storage.ingest(t.path());
+            } else if (isRange(t)) {
+                allocations.completed(t.path(), t.position(), uploadSize);
+            }
+            invalidate(t.path());
+        } finally {
+            releaseReservation();
+        }
+        ok(t.reply());
+        out.flush();
+    }
+
+    void uploadAborted(Transfer t) {
+        status = "ERR";
+        if (detail == null) detail = "aborted";
+        durability.discard(t.path());
+        if (isRange(t)) allocations.abort(t.path());
+        releaseReservation();
+    }
+
+    private static Path identityFile(Path part) {
+        return part.resolveSibling(part.getFileName() + ".id");
+    }
+
+    private static String readIdentity(Path marker) {
+        try {
+            return Files.readString(marker).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean isRange(Transfer t) {
+        return t.upload() && !t.truncate();
+    }
+
+    private void releaseReservation() {
+        if (reservation != null) {
+            reservation.release();
+            reservation = null;
+        }
+    }
+
+    private void refuse(String refusal) throws IOException {
+        fail("ERR " + refusal);
         out.flush();
     }
 
+    private void ok(String reply) throws IOException {
+        status = "OK";
+        out.writeUTF(reply);
+    }
+
+    private void ok(byte[] reply) throws IOException {
+        status = "OK";
+        out.write(reply);
+    }
+
+    private void fail(String reply) throws IOException {
+        status = "ERR";
+        out.writeUTF(reply);
+    }
+
+    private void fail(byte[] reply) throws IOException {
+        status = "ERR";
+        out.write(reply);
+    }
+
+    private static final class Batch {
+        final String tag;
+        final int total;
+        final ByteArrayOutputStream capture = new ByteArrayOutputStream(256);
+        final StringBuilder errors = new StringBuilder();
+        int done;
+        int failed;
+
+        Batch(String tag, int total) {
+            this.tag = tag;
+            this.total = total;
+        }
+    }
+
+    private static String uploadedReply(String name) {
+        return "OK Le fichier " + name + " a bien été téléversé.";
+    }
+
+    private static long parseOffset(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private Path secureResolve(String userPath) throws IOException {
+        Path p = secureResolve(baseDir, currentDir, userPath);
+        if (Listing.hidden(p)) throw new IOException("Chemin réservé");
+        return p;
+    }
+
+    static Path secureResolve(Path baseDir, Path currentDir, String userPath) throws IOException {
         Path p = currentDir.resolve(userPath).normalize();
         if (!p.startsWith(baseDir)) {
             throw new IOException("Path traversal interdit");
@@ -226,8 +1485,19 @@ public class ClientHandler implements Runnable {
         return p;
     }
 
+    private void invalidate(Path p) {
+        directories.invalidate(p);
+        if (names != null) names.refresh(p);
+        if (usage != null) usage.refresh(p, client);
+    }
+
+    private void invalidateTree(Path p) {
+        directories.invalidateTree(p);
+        if (names != null) names.refresh(p);
+        if (usage != null) usage.refreshTree(p, client);
+    }
+
     private void log(String who, String what) {
-        String ts = LocalDateTime.now().format(TS);
-        System.out.println("[" + who + " - " + ts + "] : " + what);
+        if (accessLog != null) accessLog.record(who, what, null, -1, -1, null);
     }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+final class CoalescingOutputStream extends BufferedOutputStream {
+    private final BufferedInputStream pending;
+
+    CoalescingOutputStream(OutputStream out, InputStream requests) {
+        super(out, FileTransfer.BUFFER_SIZE);
+        this.pending = new BufferedInputStream(requests, FileTransfer.BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (pending.available() > 0) return;
+        super.flush();
+    }
+
+    synchronized void flushNow() throws IOException {
+        super.flush();
+    }
+
+    InputStream input() {
+        return new FilterInputStream(pending) {
+            @Override
+            public int read() throws IOException {
+                if (in.available() == 0) flushNow();
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (in.available() == 0) flushNow();
+                return in.read(b, off, len);
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                if (in.available() == 0) flushNow();
+                return in.skip(n);
+            }
+        };
+    }
+}
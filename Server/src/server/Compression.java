@@ -0,0 +1,228 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+final class Compression {
+    static final String DEFLATE = "deflate";
+    static final String NONE = "none";
+    static final byte RAW = 'R';
+    static final byte FRAMED = 'Z';
+
+    private static final int FRAME_SIZE = FileTransfer.BUFFER_SIZE;
+    private static final double SAMPLE_THRESHOLD = 0.9;
+    private static final int POOL_SIZE = 64;
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "zip", "gz", "tgz", "bz2", "xz", "zst", "lz4", "7z", "rar", "jar", "war",
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "mp3", "aac", "ogg", "flac",
+            "mp4", "mkv", "avi", "mov", "webm", "pdf", "docx", "xlsx", "pptx", "odt");
+
+    private static final ArrayBlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ArrayBlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    record Stats(long raw, long wire, long nanos) {
+        String describe() {
+            int percent = raw == 0 ? 100 : (int) Math.round(wire * 100.0 / raw);
+            return String.format(Locale.ROOT, "compression %d -> %d octets (%d%%), %.1f ms", raw, wire, percent, nanos / 1e6);
+        }
+    }
+
+    private Compression() {}
+
+    static String negotiate(String offered) {
+        if (ServerConfig.COMPRESSION.equals(NONE)) return NONE;
+        for (String algorithm : offered.split("[,\\s]+")) {
+            if (algorithm.equalsIgnoreCase(ServerConfig.COMPRESSION)) return ServerConfig.COMPRESSION;
+        }
+        return NONE;
+    }
+
+    static boolean worthCompressing(String name, ContentSource src, long position, long size) throws IOException {
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+        int len = (int) Math.min(FRAME_SIZE, size);
+        if (len == 0) return false;
+        byte[] sample = BufferPool.array();
+        byte[] scratch = BufferPool.array();
+        Deflater deflater = null;
+        try {
+            ByteBuffer wrapped = ByteBuffer.wrap(sample, 0, len);
+            while (wrapped.hasRemaining()) {
+                if (src.read(wrapped, position + wrapped.position()) <= 0) return false;
+            }
+            deflater = deflater();
+            deflater.setInput(sample, 0, len);
+            deflater.finish();
+            int n = deflater.deflate(scratch, 0, len);
+            return deflater.finished() && n < len * SAMPLE_THRESHOLD;
+        } finally {
+            if (deflater != null) release(deflater);
+            BufferPool.release(sample);
+            BufferPool.release(scratch);
+        }
+    }
+
+    static Stats send(ContentSource src, long position, long size, DataOutputStream out, Checksum crc)
+            throws IOException {
+        byte[] raw = BufferPool.array();
+        byte[] packed = BufferPool.array();
+        ByteBuffer wrapped = ByteBuffer.wrap(raw);
+        long wire = 0;
+        long nanos = 0;
+        long end = position + size;
+        Deflater deflater = deflater();
+        try {
+            while (position < end) {
+                int len = (int) Math.min(FRAME_SIZE, end - position);
+                wrapped.clear().limit(len);
+                while (wrapped.hasRemaining()) {
+                    if (src.read(wrapped, position + wrapped.position()) <= 0) {
+                        throw new IOException("Fichier tronqué pendant le transfert");
+                    }
+                }
+                if (crc != null) crc.update(raw, 0, len);
+                long t0 = System.nanoTime();
+                deflater.reset();
+                deflater.setInput(raw, 0, len);
+                deflater.finish();
+                int n = deflater.deflate(packed, 0, len);
+                boolean stored = !deflater.finished() || n >= len;
+                nanos += System.nanoTime() - t0;
+                out.writeInt(len);
+                if (stored) {
+                    out.writeInt(len);
+                    out.write(raw, 0, len);
+                    wire += len;
+                } else {
+                    out.writeInt(n);
+                    out.write(packed, 0, n);
+                    wire += n;
+                }
+                wire += 8;
+                position += len;
+            }
+        } finally {
+            release(deflater);
+            BufferPool.release(raw);
+            BufferPool.release(packed);
+        }
+        out.flush();
+        return new Stats(size, wire, nanos);
+    }
+
+    static FramedInputStream framedInput(DataInputStream in) {
+        return new FramedInputStream(in);
+    }
+
+    private static Deflater deflater() {
+        Deflater d = DEFLATERS.poll();
+        return d != null ? d : new Deflater(ServerConfig.COMPRESSION_LEVEL, true);
+    }
+
+    private static void release(Deflater d) {
+        d.reset();
+        if (!DEFLATERS.offer(d)) d.end();
+    }
+
+    private static Inflater inflater() {
+        Inflater i = INFLATERS.poll();
+        return i != null ? i : new Inflater(true);
+    }
+
+    private static void release(Inflater i) {
+        i.reset();
+        if (!INFLATERS.offer(i)) i.end();
+    }
+
+    static final class FramedInputStream extends InputStream {
+        private final DataInputStream in;
+        private byte[] raw = BufferPool.array();
+        private byte[] packed = BufferPool.array();
+        private Inflater inflater;
+        private int pos;
+        private int limit;
+        private long rawBytes;
+        private long wire;
+        private long nanos;
+
+        private FramedInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos == limit && !fill()) return -1;
+            return raw[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (pos == limit && !fill()) return -1;
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(raw, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        Stats stats() {
+            return new Stats(rawBytes, wire, nanos);
+        }
+
+        @Override
+        public void close() {
+            if (inflater != null) {
+                release(inflater);
+                inflater = null;
+            }
+            if (raw != null) {
+                BufferPool.release(raw);
+                BufferPool.release(packed);
+                raw = null;
+                packed = null;
+            }
+        }
+
+        private boolean fill() throws IOException {
+            int len = in.readInt();
+            int stored = in.readInt();
+            if (len <= 0 || len > FRAME_SIZE || stored <= 0 || stored > len) {
+                throw new IOException("Trame compressée invalide");
+            }
+            if (stored == len) {
+                in.readFully(raw, 0, len);
+            } else {
+                in.readFully(packed, 0, stored);
+                if (inflater == null) inflater = inflater();
+                long t0 = System.nanoTime();
+                inflater.reset();
+                inflater.setInput(packed, 0, stored);
+                try {
+                    if (inflater.inflate(raw, 0, len) != len || !inflater.finished()) {
+                        throw new IOException("Trame compressée invalide");
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Trame compressée invalide", e);
+                }
+                nanos += System.nanoTime() - t0;
+            }
+            pos = 0;
+            limit = len;
+            rawBytes += len;
+            wire += stored + 8;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Checksum;
+
+interface ContentSource extends Closeable {
+
+    long size();
+
+    long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+    int read(ByteBuffer dst, long position) throws IOException;
+
+    default void checksum(long position, long count, Checksum crc) throws IOException {
+        ByteBuffer buffer = BufferPool.direct((int) Math.min(FileTransfer.BUFFER_SIZE, Math.max(1, count)));
+        try {
+            long end = position + count;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int r = read(buffer, position);
+                if (r <= 0) throw new IOException("Fichier tronqué pendant le transfert");
+                crc.update(buffer.flip());
+                position += r;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    static ContentSource of(FileChannel channel) throws IOException {
+        return new FileSource(channel, channel.size());
+    }
+
+    record FileSource(FileChannel channel, long size) implements ContentSource {
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
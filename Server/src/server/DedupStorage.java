@@ -0,0 +1,500 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+final class DedupStorage implements Storage {
+    private static final byte[] MAGIC = { 'G', 'D', 'E', 'D', 'U', 'P', '0', '2' };
+    private static final byte[] LEGACY = { 'G', 'D', 'E', 'D', 'U', 'P', '0', '1' };
+    private static final int HEADER = MAGIC.length + 8 + 4;
+    private static final int HASH = 32;
+    private static final int ENTRY = HASH + 4;
+    private static final int TAG = 32;
+
+    private static final int MIN_CHUNK = 16 * 1024;
+    private static final int MAX_CHUNK = 256 * 1024;
+    private static final long MASK_HIGH = 0xFFFFL << 48;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom rnd = new SplittableRandom(0x6765737469L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = rnd.nextLong();
+        }
+    }
+
+    private final Path baseDir;
+    private final Path chunkDir;
+    private final Path keyFile;
+    private final SecretKeySpec key;
+    private final FileTime legacyBefore;
+    private final Durability durability;
+    private final LongAdder logicalBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder newChunks = new LongAdder();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final HashMap<String, Integer> pins = new HashMap<>();
+    private Set<String> collecting;
+
+    DedupStorage(Path baseDir, Path chunkDir, Durability durability) throws IOException {
+        this.baseDir = baseDir;
+        this.chunkDir = chunkDir;
+        this.durability = durability;
+        Files.createDirectories(chunkDir);
+        this.keyFile = chunkDir.resolve("key");
+        this.key = loadKey(keyFile);
+        this.legacyBefore = Files.getLastModifiedTime(keyFile);
+    }
+
+    private static SecretKeySpec loadKey(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            byte[] k = new byte[TAG];
+            new SecureRandom().nextBytes(k);
+            Path tmp = Files.createTempFile(file.getParent(), ".key", ".tmp");
+            try {
+                try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    ByteBuffer buf = ByteBuffer.wrap(k);
+                    while (buf.hasRemaining()) {
+                        fc.write(buf);
+                    }
+                    fc.force(true);
+                }
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+        }
+        byte[] k = Files.readAllBytes(file);
+        if (k.length != TAG) throw new IOException("Clé des blocs invalide: " + file);
+        return new SecretKeySpec(k, "HmacSHA256");
+    }
+
+    private Manifest manifest(FileChannel fc, Path file) throws IOException {
+        Manifest m = Manifest.read(fc, key);
+        if (m != null && m.legacy() && Files.getLastModifiedTime(file).compareTo(legacyBefore) >= 0) return null;
+        return m;
+    }
+
+    @Override
+    public ContentSource open(Path file) throws IOException {
+        FileChannel fc = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            Manifest m = manifest(fc, file);
+            if (m == null) {
+                return ContentSource.of(fc);
+            }
+            fc.close();
+            return new ManifestSource(m);
+        } catch (IOException e) {
+            fc.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean streaming() {
+        return true;
+    }
+
+    @Override
+    public void store(InputStream in, long size, Path dest) throws IOException {
+        Writer writer = new Writer();
+        try {
+            byte[] buffer = BufferPool.array();
+            try {
+                long remaining = size;
+                while (remaining > 0) {
+                    int r = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (r == -1) throw new IOException("Stream ended prematurely");
+                    writer.update(buffer, 0, r);
+                    remaining -= r;
+                }
+            } finally {
+                BufferPool.release(buffer);
+            }
+            writer.finish(dest);
+        } finally {
+            writer.release();
+        }
+    }
+
+    @Override
+    public void ingest(Path file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (manifest(fc, file) != null) return;
+            Writer writer = new Writer();
+            try {
+                byte[] buffer = BufferPool.array();
+                try {
+                    ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                    long position = 0;
+                    int r;
+                    while ((r = fc.read(wrapped.clear(), position)) != -1) {
+                        writer.update(buffer, 0, r);
+                        position += r;
+                    }
+                } finally {
+                    BufferPool.release(buffer);
+                }
+                writer.finish(file);
+            } finally {
+                writer.release();
+            }
+        }
+    }
+
+    @Override
+    public String stats() {
+        long logical = logicalBytes.sum();
+        long stored = storedBytes.sum();
+        return String.format("storage=dedup logical=%d stored=%d ratio=%.2f chunks=%d new=%d",
+                logical, stored, stored == 0 ? 1.0 : logical / (double) stored, chunks.sum(), newChunks.sum());
+    }
+
+    boolean sweep() {
+        if (!sweeping.compareAndSet(false, true)) return false;
+        Thread t = new Thread(() -> {
+            try {
+                int removed = collect();
+                System.out.println("Nettoyage des blocs: " + removed + " bloc(s) supprimé(s)");
+            } catch (IOException e) {
+                System.err.println("Erreur nettoyage des blocs: " + e.getMessage());
+            } finally {
+                sweeping.set(false);
+            }
+        }, "chunk-gc");
+        t.setDaemon(true);
+        t.start();
+        return true;
+    }
+
+    private int collect() throws IOException {
+        FileTime start = FileTime.fromMillis(System.currentTimeMillis());
+        Set<String> live = ConcurrentHashMap.newKeySet();
+        synchronized (this) {
+            live.addAll(pins.keySet());
+            collecting = live;
+        }
+        try {
+            return collect(start, live);
+        } finally {
+            synchronized (this) {
+                collecting = null;
+            }
+        }
+    }
+
+    private int collect(FileTime start, Set<String> live) throws IOException {
+        Files.walkFileTree(baseDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile()) {
+                    Manifest m;
+                    try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+                        m = manifest(fc, file);
+                    }
+                    if (m != null) {
+                        for (byte[] h : m.hashes()) {
+                            live.add(HexFormat.of().formatHex(h));
+                        }
+                        if (m.legacy()) write(m.size(), m.hashes(), m.lengths(), file);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        int[] removed = { 0 };
+        Files.walkFileTree(chunkDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!file.equals(keyFile) && attrs.lastModifiedTime().compareTo(start) < 0) {
+                    synchronized (DedupStorage.this) {
+                        if (!live.contains(file.getFileName().toString()) && Files.deleteIfExists(file)) {
+                            removed[0]++;
+                        }
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return removed[0];
+    }
+
+    private Path chunkPath(byte[] hash) {
+        String hex = HexFormat.of().formatHex(hash);
+        return chunkDir.resolve(hex.substring(0, 2)).resolve(hex);
+    }
+
+    private synchronized void pin(String hex) {
+        pins.merge(hex, 1, Integer::sum);
+        if (collecting != null) collecting.add(hex);
+    }
+
+    private synchronized void unpin(List<byte[]> hashes) {
+        for (byte[] h : hashes) {
+            pins.computeIfPresent(HexFormat.of().formatHex(h), (k, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    private CompletableFuture<Void> put(byte[] hash, byte[] data, int len) throws IOException {
+        pin(HexFormat.of().formatHex(hash));
+        Path path = chunkPath(hash);
+        chunks.increment();
+        logicalBytes.add(len);
+        if (Files.exists(path)) {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return null;
+        }
+        Files.createDirectories(path.getParent());
+        Path tmp = durability.temp(path);
+        write(tmp, ByteBuffer.wrap(data, 0, len));
+        newChunks.increment();
+        storedBytes.add(len);
+        return durability.publishAsync(tmp, path);
+    }
+
+    private void write(long size, byte[][] hashes, int[] lengths, Path dest) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + hashes.length * ENTRY + TAG);
+        buf.put(MAGIC).putLong(size).putInt(hashes.length);
+        for (int i = 0; i < hashes.length; i++) {
+            buf.put(hashes[i]).putInt(lengths[i]);
+        }
+        buf.put(tag(key, buf.array(), buf.position()));
+        buf.flip();
+        Path tmp = durability.temp(dest);
+        write(tmp, buf);
+        durability.publish(tmp, dest);
+    }
+
+    private void write(Path tmp, ByteBuffer buf) throws IOException {
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (buf.hasRemaining()) {
+                fc.write(buf);
+            }
+        } catch (IOException e) {
+            durability.discard(tmp);
+            throw e;
+        }
+    }
+
+    private static byte[] tag(SecretKeySpec key, byte[] data, int len) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            mac.update(data, 0, len);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private final class Writer {
+        private final byte[] chunk = new byte[MAX_CHUNK];
+        private final List<byte[]> hashes = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private final List<CompletableFuture<Void>> published = new ArrayList<>();
+        private final MessageDigest digest;
+        private int length;
+        private long hash;
+        private long total;
+
+        Writer() throws IOException {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+
+        void update(byte[] data, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                byte b = data[i];
+                chunk[length++] = b;
+                hash = (hash << 1) + GEAR[b & 0xFF];
+                if ((length >= MIN_CHUNK && (hash & MASK_HIGH) == 0) || length == MAX_CHUNK) {
+                    emit();
+                }
+            }
+        }
+
+        private void emit() throws IOException {
+            digest.update(chunk, 0, length);
+            byte[] h = digest.digest();
+            hashes.add(h);
+            lengths.add(length);
+            CompletableFuture<Void> f = put(h, chunk, length);
+            if (f != null) published.add(f);
+            total += length;
+            length = 0;
+            hash = 0;
+        }
+
+        void finish(Path dest) throws IOException {
+            if (length > 0) emit();
+            try {
+                CompletableFuture.allOf(published.toArray(CompletableFuture[]::new)).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException io) throw io;
+                throw e;
+            }
+            int[] sizes = new int[lengths.size()];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = lengths.get(i);
+            }
+            write(total, hashes.toArray(byte[][]::new), sizes, dest);
+        }
+
+        void release() {
+            unpin(hashes);
+        }
+    }
+
+    private record Manifest(long size, byte[][] hashes, int[] lengths, long[] offsets, boolean legacy) {
+
+        static Manifest read(FileChannel fc, SecretKeySpec key) throws IOException {
+            long fileSize = fc.size();
+            if (fileSize < HEADER) return null;
+            ByteBuffer head = ByteBuffer.allocate(HEADER);
+            readFully(fc, head, 0);
+            byte[] magic = new byte[MAGIC.length];
+            head.get(magic);
+            boolean legacy = Arrays.equals(magic, LEGACY);
+            if (!legacy && !Arrays.equals(magic, MAGIC)) return null;
+            long size = head.getLong();
+            int count = head.getInt();
+            int tag = legacy ? 0 : TAG;
+            if (count < 0 || fileSize != HEADER + (long) count * ENTRY + tag) return null;
+
+            ByteBuffer body = ByteBuffer.allocate(count * ENTRY + tag);
+            readFully(fc, body, HEADER);
+            if (!legacy) {
+                byte[] signed = new byte[HEADER + count * ENTRY];
+                head.rewind().get(signed, 0, HEADER);
+                body.get(signed, HEADER, count * ENTRY);
+                byte[] expected = new byte[TAG];
+                body.get(expected);
+                if (!MessageDigest.isEqual(expected, tag(key, signed, signed.length))) return null;
+                body.rewind();
+            }
+            byte[][] hashes = new byte[count][HASH];
+            int[] lengths = new int[count];
+            long[] offsets = new long[count];
+            long offset = 0;
+            for (int i = 0; i < count; i++) {
+                body.get(hashes[i]);
+                lengths[i] = body.getInt();
+                if (lengths[i] <= 0) return null;
+                offsets[i] = offset;
+                offset += lengths[i];
+            }
+            return offset == size ? new Manifest(size, hashes, lengths, offsets, legacy) : null;
+        }
+
+        int chunkAt(long position) {
+            int i = Arrays.binarySearch(offsets, position);
+            return i >= 0 ? i : -i - 2;
+        }
+
+        private static void readFully(FileChannel fc, ByteBuffer buf, long position) throws IOException {
+            while (buf.hasRemaining()) {
+                int r = fc.read(buf, position);
+                if (r == -1) throw new IOException("Manifeste tronqué");
+                position += r;
+            }
+            buf.flip();
+        }
+    }
+
+    private final class ManifestSource implements ContentSource {
+        private final Manifest manifest;
+        private int current = -1;
+        private FileChannel chunk;
+
+        ManifestSource(Manifest manifest) {
+            this.manifest = manifest;
+        }
+
+        @Override
+        public long size() {
+            return manifest.size();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            if (position >= manifest.size() || count <= 0) return 0;
+            int i = manifest.chunkAt(position);
+            long inChunk = position - manifest.offsets()[i];
+            FileChannel fc = chunk(i);
+            long n = fc.transferTo(inChunk, Math.min(count, manifest.lengths()[i] - inChunk), target);
+            if (n == 0 && inChunk >= fc.size()) throw new IOException("Bloc tronqué");
+            return n;
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            if (position >= manifest.size()) return -1;
+            int i = manifest.chunkAt(position);
+            long inChunk = position - manifest.offsets()[i];
+            int max = (int) Math.min(dst.remaining(), manifest.lengths()[i] - inChunk);
+            ByteBuffer view = dst.slice().limit(max);
+            int r = chunk(i).read(view, inChunk);
+            if (r == -1) throw new IOException("Bloc tronqué");
+            dst.position(dst.position() + r);
+            return r;
+        }
+
+        private FileChannel chunk(int i) throws IOException {
+            if (i != current) {
+                close();
+                chunk = FileChannel.open(chunkPath(manifest.hashes()[i]), StandardOpenOption.READ);
+                current = i;
+            }
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (chunk != null) {
+                chunk.close();
+                chunk = null;
+                current = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.LongPredicate;
+
+final class DeltaSync {
+    static final int MIN_BLOCK = 512;
+    static final int MAX_BLOCK = 1 << 20;
+    static final byte LITERAL = 'L';
+    static final byte BLOCKS = 'B';
+    static final byte END = 'E';
+
+    record Result(long literalBytes, long reusedBytes, long size) {}
+
+    private DeltaSync() {}
+
+    static void writeSignature(ContentSource basis, int blockSize, DataOutputStream out) throws IOException {
+        MessageDigest md5 = md5();
+        long size = basis.size();
+        long count = (size + blockSize - 1) / blockSize;
+        out.writeLong(size);
+        out.writeInt(blockSize);
+        out.writeInt((int) count);
+        byte[] block = new byte[blockSize];
+        ByteBuffer wrapped = ByteBuffer.wrap(block);
+        for (long i = 0; i < count; i++) {
+            long position = i * blockSize;
+            int len = (int) Math.min(blockSize, size - position);
+            readFully(basis, wrapped, position, len);
+            out.writeInt(weak(block, 0, len));
+            md5.update(block, 0, len);
+            out.write(md5.digest());
+        }
+        out.flush();
+    }
+
+    static Result apply(DataInputStream in, ContentSource basis, int blockSize, FileChannel target, LongPredicate grow)
+            throws IOException {
+        long written = 0;
+        long literal = 0;
+        long reused = 0;
+        boolean refused = false;
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(blockSize, FileTransfer.BUFFER_SIZE));
+        while (true) {
+            byte op = in.readByte();
+            if (op == LITERAL) {
+                int len = in.readInt();
+                if (len < 0) throw new IOException("Delta invalide");
+                refused = refused || !grow.test(written + len);
+                if (refused) {
+                    in.skipNBytes(len);
+                } else {
+                    FileTransfer.receive(in, target, written, len);
+                }
+                written += len;
+                literal += len;
+            } else if (op == BLOCKS) {
+                long start = (long) in.readInt() * blockSize;
+                long end = Math.min(basis.size(), start + (long) in.readInt() * blockSize);
+                if (start < 0 || start >= end) throw new IOException("Référence de bloc invalide");
+                refused = refused || !grow.test(written + end - start);
+                if (refused) written += end - start;
+                for (long p = start; p < end && !refused; ) {
+                    int len = (int) Math.min(buffer.capacity(), end - p);
+                    readFully(basis, buffer, p, len);
+                    while (buffer.hasRemaining()) {
+                        written += target.write(buffer, written);
+                    }
+                    p += len;
+                }
+                reused += end - start;
+            } else if (op == END) {
+                long size = in.readLong();
+                if (size != written) throw new IOException("Taille reconstruite incohérente: " + written + " / " + size);
+                return new Result(literal, reused, written);
+            } else {
+                throw new IOException("Opération delta inconnue: " + op);
+            }
+        }
+    }
+
+    static int weak(byte[] data, int off, int len) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < len; i++) {
+            int x = data[off + i] & 0xFF;
+            a += x;
+            b += (len - i) * x;
+        }
+        return ((b & 0xFFFF) << 16) | (a & 0xFFFF);
+    }
+
+    private static void readFully(ContentSource src, ByteBuffer buf, long position, int len) throws IOException {
+        buf.clear().limit(len);
+        while (buf.hasRemaining()) {
+            int r = src.read(buf, position + buf.position());
+            if (r <= 0) throw new IOException("Fichier de base tronqué");
+        }
+        buf.flip();
+    }
+
+    private static MessageDigest md5() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+final class DirectoryCache {
+    private static final List<Listing.Entry> TOO_LARGE = Collections.unmodifiableList(new ArrayList<>());
+
+    private record Snapshot(List<Listing.Entry> entries, WatchKey key) {}
+
+    private final int budget;
+    private final int maxPerDirectory;
+    private final LinkedHashMap<Path, Snapshot> snapshots = new LinkedHashMap<>(64, 0.75f, true);
+    private final AtomicLong epoch = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder unwatched = new LongAdder();
+    private final WatchService watcher;
+    private int cachedEntries;
+
+    DirectoryCache(int budget) throws IOException {
+        this.budget = budget;
+        this.maxPerDirectory = Math.max(1, budget / 8);
+        this.watcher = budget > 0 ? FileSystems.getDefault().newWatchService() : null;
+        if (watcher != null) {
+            Thread t = new Thread(this::watch, "dir-watch");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    void scan(Path dir, Listing.Visitor visitor) throws IOException {
+        List<Listing.Entry> entries = entries(dir);
+        if (entries == TOO_LARGE) {
+            Listing.scan(dir, visitor);
+            return;
+        }
+        for (Listing.Entry entry : entries) {
+            if (!visitor.visit(entry)) return;
+        }
+    }
+
+    boolean isDirectory(Path path) throws IOException {
+        Path parent = path.getParent();
+        if (watcher == null || parent == null) {
+            return Files.isDirectory(path);
+        }
+        List<Listing.Entry> entries;
+        try {
+            entries = entries(parent);
+        } catch (IOException e) {
+            return false;
+        }
+        if (entries == TOO_LARGE) {
+            return Files.isDirectory(path);
+        }
+        String name = path.getFileName().toString();
+        for (Listing.Entry entry : entries) {
+            if (entry.name().equals(name)) return entry.directory();
+        }
+        return false;
+    }
+
+    void invalidate(Path path) {
+        if (watcher == null) return;
+        epoch.incrementAndGet();
+        synchronized (this) {
+            for (Path p = path; p != null; p = p.getParent()) {
+                remove(p);
+            }
+        }
+    }
+
+    void invalidateTree(Path path) {
+        if (watcher == null) return;
+        invalidate(path);
+        synchronized (this) {
+            Iterator<Map.Entry<Path, Snapshot>> it = snapshots.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Snapshot> e = it.next();
+                if (e.getKey().startsWith(path)) {
+                    it.remove();
+                    discard(e.getValue());
+                    invalidations.increment();
+                }
+            }
+        }
+    }
+
+    long hits() { return hits.sum(); }
+    long misses() { return misses.sum(); }
+    long evictions() { return evictions.sum(); }
+    long invalidations() { return invalidations.sum(); }
+    long unwatched() { return unwatched.sum(); }
+
+    synchronized int directories() { return snapshots.size(); }
+    synchronized int entries() { return cachedEntries; }
+
+    private List<Listing.Entry> entries(Path dir) throws IOException {
+        if (watcher != null) {
+            synchronized (this) {
+                Snapshot s = snapshots.get(dir);
+                if (s != null) {
+                    hits.increment();
+                    return s.entries();
+                }
+            }
+        }
+        misses.increment();
+
+        long before = epoch.get();
+        WatchKey key = null;
+        if (watcher != null) {
+            try {
+                key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException | UnsupportedOperationException e) {
+                unwatched.increment();
+            }
+        }
+        List<Listing.Entry> entries = new ArrayList<>();
+        Listing.scan(dir, entry -> {
+            entries.add(entry);
+            return entries.size() <= maxPerDirectory;
+        });
+        List<Listing.Entry> result = entries.size() > maxPerDirectory ? TOO_LARGE : List.copyOf(entries);
+        if (key != null) {
+            synchronized (this) {
+                if (epoch.get() == before && key.isValid() && !snapshots.containsKey(dir)) {
+                    snapshots.put(dir, new Snapshot(result, key));
+                    cachedEntries += Math.max(1, result.size());
+                    evict();
+                } else if (!snapshots.containsKey(dir)) {
+                    key.cancel();
+                }
+            }
+        }
+        return result;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Path, Snapshot>> it = snapshots.entrySet().iterator();
+        while (cachedEntries > budget && it.hasNext()) {
+            Snapshot s = it.next().getValue();
+            it.remove();
+            discard(s);
+            evictions.increment();
+        }
+    }
+
+    private void remove(Path dir) {
+        Snapshot s = snapshots.remove(dir);
+        if (s != null) {
+            discard(s);
+            invalidations.increment();
+        }
+    }
+
+    private void discard(Snapshot s) {
+        cachedEntries -= Math.max(1, s.entries().size());
+        s.key().cancel();
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            key.pollEvents();
+            Path dir = (Path) key.watchable();
+            epoch.incrementAndGet();
+            synchronized (this) {
+                Snapshot s = snapshots.get(dir);
+                if (s != null && s.key() == key) {
+                    remove(dir);
+                }
+            }
+            key.reset();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+final class Durability {
+    static final String NONE = "none";
+    static final String FILE = "file";
+    static final String GROUP = "group";
+    private static final Pattern TEMP = Pattern.compile("\\.staged-\\d+-.+");
+
+    private final String policy;
+    private final Path staging;
+    private final long intervalNanos;
+    private final AtomicLong sequence = new AtomicLong();
+    private final LinkedBlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder dirSyncs = new LongAdder();
+    private final LongAdder groups = new LongAdder();
+
+    private record Pending(Path temp, Path dest, CompletableFuture<Void> done) {}
+
+    Durability(String policy, Path staging, long intervalMillis) throws IOException {
+        if (!policy.equals(NONE) && !policy.equals(FILE) && !policy.equals(GROUP)) {
+            throw new IllegalArgumentException("Politique fsync inconnue: " + policy);
+        }
+        this.policy = policy;
+        this.staging = staging;
+        this.intervalNanos = Math.max(0, intervalMillis) * 1_000_000;
+        Files.createDirectories(staging);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(staging)) {
+            for (Path p : leftovers) {
+                if (TEMP.matcher(p.getFileName().toString()).matches() && Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+        if (policy.equals(GROUP)) {
+            Thread t = new Thread(this::commitLoop, "group-commit");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    Path temp(Path dest) {
+        return staging.resolve(".staged-" + sequence.incrementAndGet() + "-" + dest.getFileName());
+    }
+
+    boolean isTemp(Path p) {
+        return staging.equals(p.getParent());
+    }
+
+    void publish(Path temp, Path dest) throws IOException {
+        try {
+            publishAsync(temp, dest).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw e;
+        }
+    }
+
+    CompletableFuture<Void> publishAsync(Path temp, Path dest) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (policy.equals(GROUP)) {
+            pending.add(new Pending(temp, dest, done));
+            return done;
+        }
+        try {
+            if (policy.equals(FILE)) sync(temp);
+            move(temp, dest);
+            if (policy.equals(FILE)) syncDirectory(dest.getParent());
+            done.complete(null);
+        } catch (IOException e) {
+            discard(temp);
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    void discard(Path temp) {
+        if (!isTemp(temp)) return;
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException ignored) {}
+    }
+
+    String stats() {
+        return "fsync=" + policy + " published=" + published.sum() + " syncs=" + syncs.sum() + " dirsyncs="
+                + dirSyncs.sum() + " groups=" + groups.sum() + " queued=" + pending.size();
+    }
+
+    private void commitLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (intervalNanos > 0) LockSupport.parkNanos(intervalNanos);
+            pending.drainTo(batch);
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    private void commit(List<Pending> batch) {
+        groups.increment();
+        Set<Path> dirs = new LinkedHashSet<>();
+        for (Pending p : batch) {
+            try {
+                sync(p.temp());
+                move(p.temp(), p.dest());
+                dirs.add(p.dest().getParent());
+            } catch (IOException e) {
+                discard(p.temp());
+                p.done().completeExceptionally(e);
+            }
+        }
+        for (Path dir : dirs) {
+            syncDirectory(dir);
+        }
+        for (Pending p : batch) {
+            p.done().complete(null);
+        }
+    }
+
+    private void sync(Path file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            fc.force(true);
+        }
+        syncs.increment();
+    }
+
+    private void syncDirectory(Path dir) {
+        try (FileChannel fc = FileChannel.open(dir, StandardOpenOption.READ)) {
+            fc.force(true);
+            dirSyncs.increment();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void move(Path temp, Path dest) throws IOException {
+        try {
+            Files.move(temp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Path sibling = dest.resolveSibling("." + dest.getFileName() + "." + sequence.incrementAndGet() + ".tmp");
+            try {
+                Files.move(temp, sibling, StandardCopyOption.REPLACE_EXISTING);
+                if (!policy.equals(NONE)) sync(sibling);
+                Files.move(sibling, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e2) {
+                Files.deleteIfExists(sibling);
+                throw e2;
+            }
+        }
+        published.increment();
+    }
+}
@@ -0,0 +1,53 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+final class FileStorage implements Storage {
+    private final MappedCache mappings;
+
+    FileStorage(MappedCache mappings) {
+        this.mappings = mappings;
+    }
+
+    @Override
+    public ContentSource open(Path file) throws IOException {
+        if (mappings != null) {
+            ContentSource mapped = mappings.open(file);
+            if (mapped != null) return mapped;
+        }
+        return ContentSource.of(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    @Override
+    public long size(Path file) throws IOException {
+        return Files.size(file);
+    }
+
+    @Override
+    public boolean streaming() {
+        return false;
+    }
+
+    @Override
+    public void store(InputStream in, long size, Path dest) throws IOException {
+        try (FileChannel fc = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            FileTransfer.receive(in, fc, 0, size);
+        }
+    }
+
+    @Override
+    public void ingest(Path file) {
+        if (mappings != null) mappings.invalidate(file);
+    }
+
+    @Override
+    public String stats() {
+        return mappings == null ? "storage=files" : "storage=files " + mappings.stats();
+    }
+}
@@ -0,0 +1,101 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Checksum;
+
+public final class FileTransfer {
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private FileTransfer() {}
+
+    static void send(ContentSource src, long position, long size, Socket socket, OutputStream out, Qos.Limiter limiter,
+            Checksum crc) throws IOException {
+        SocketChannel channel = socket != null ? socket.getChannel() : null;
+        if (ServerConfig.ZERO_COPY && channel != null) {
+            out.flush();
+            long end = position + size;
+            while (position < end) {
+                boolean paced = limiter.active();
+                long n = src.transferTo(position, paced ? Math.min(end - position, Qos.QUANTUM) : end - position, channel);
+                if (n <= 0) throw new IOException("Fichier tronqué pendant le transfert");
+                if (crc != null) src.checksum(position, n, crc);
+                if (paced) limiter.acquire(n);
+                position += n;
+            }
+        } else {
+            byte[] buffer = BufferPool.array();
+            try {
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                long end = position + size;
+                while (position < end) {
+                    wrapped.clear().limit((int) Math.min(buffer.length, end - position));
+                    int r = src.read(wrapped, position);
+                    if (r <= 0) throw new IOException("Fichier tronqué pendant le transfert");
+                    if (crc != null) crc.update(buffer, 0, r);
+                    out.write(buffer, 0, r);
+                    position += r;
+                }
+            } finally {
+                BufferPool.release(buffer);
+            }
+        }
+        out.flush();
+    }
+
+    public static void receive(InputStream in, FileChannel dst, long position, long count) throws IOException {
+        receive(in, dst, position, count, null);
+    }
+
+    static void receive(InputStream in, FileChannel dst, long position, long count, Checksum crc) throws IOException {
+        byte[] buffer = BufferPool.array();
+        try {
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            long remaining = count;
+            while (remaining > 0) {
+                int r = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (r == -1) throw new IOException("Stream ended prematurely");
+                if (crc != null) crc.update(buffer, 0, r);
+                wrapped.clear().limit(r);
+                while (wrapped.hasRemaining()) {
+                    position += dst.write(wrapped, position);
+                }
+                remaining -= r;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    public static void transferTo(FileChannel src, long position, long count, WritableByteChannel dst) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long n = src.transferTo(position, end - position, dst);
+            if (n <= 0 && position >= src.size()) {
+                throw new IOException("Fichier tronqué pendant le transfert");
+            }
+            position += n;
+        }
+    }
+
+    public static void copy(InputStream in, OutputStream out, long count) throws IOException {
+        byte[] buffer = BufferPool.array();
+        try {
+            long remaining = count;
+            while (remaining > 0) {
+                int r = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (r == -1) throw new IOException("Stream ended prematurely");
+                out.write(buffer, 0, r);
+                remaining -= r;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+
+final class Listing {
+    static final int FRAME_CHARS = 16 * 1024;
+    static final int MAX_UTF = 65535;
+
+    private static volatile Path hidden;
+
+    record Entry(String name, boolean directory, long size) {
+        String render() {
+            return (directory ? "[Folder] " : "[File] ") + name + '\n';
+        }
+    }
+
+    interface Visitor {
+        boolean visit(Entry entry) throws IOException;
+    }
+
+    private Listing() {}
+
+    static void hide(Path dir) {
+        hidden = dir;
+    }
+
+    static boolean hidden(Path p) {
+        Path h = hidden;
+        return h != null && p.startsWith(h);
+    }
+
+    static void scan(Path dir, Visitor visitor) throws IOException {
+        Path h = hidden;
+        boolean filter = h != null && dir.equals(h.getParent());
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                if (filter && p.equals(h)) continue;
+                Entry entry;
+                try {
+                    BasicFileAttributes attrs = attributes(ds, p);
+                    entry = new Entry(p.getFileName().toString(), attrs.isDirectory(), attrs.size());
+                } catch (IOException e) {
+                    entry = new Entry(p.getFileName().toString(), false, 0);
+                }
+                if (!visitor.visit(entry)) return;
+            }
+        }
+    }
+
+    private static BasicFileAttributes attributes(DirectoryStream<Path> ds, Path p) throws IOException {
+        if (ds instanceof SecureDirectoryStream<Path> sds) {
+            return sds.getFileAttributeView(p.getFileName(), BasicFileAttributeView.class).readAttributes();
+        }
+        return Files.readAttributes(p, BasicFileAttributes.class);
+    }
+
+    static int utfLength(String s) {
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                len++;
+            } else if (c > 0x07FF) {
+                len += 3;
+            } else {
+                len += 2;
+            }
+        }
+        return len;
+    }
+}
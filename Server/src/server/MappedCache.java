@@ -0,0 +1,175 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Checksum;
+
+final class MappedCache {
+    private final long budget;
+    private final long maxFile;
+    private final LinkedHashMap<Path, Mapping> mappings = new LinkedHashMap<>(64, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long mapped;
+
+    private static final class Mapping {
+        final Path path;
+        final long mtime;
+        final MappedByteBuffer buffer;
+        int refs;
+        boolean evicted;
+
+        Mapping(Path path, long mtime, MappedByteBuffer buffer) {
+            this.path = path;
+            this.mtime = mtime;
+            this.buffer = buffer;
+        }
+    }
+
+    MappedCache(long budget, long maxFile) {
+        this.budget = budget;
+        this.maxFile = Math.min(maxFile, Integer.MAX_VALUE);
+    }
+
+    ContentSource open(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attrs.size();
+        long mtime = attrs.lastModifiedTime().toMillis();
+        if (!attrs.isRegularFile() || size == 0 || size > maxFile || size > budget) {
+            bypassed.increment();
+            return null;
+        }
+        synchronized (this) {
+            Mapping m = mappings.get(file);
+            if (m != null && m.mtime == mtime && m.buffer.capacity() == size) {
+                hits.increment();
+                m.refs++;
+                return new MappedSource(m);
+            }
+            if (m != null) evict(m);
+            misses.increment();
+            if (!reserve(size)) {
+                bypassed.increment();
+                return null;
+            }
+            MappedByteBuffer buffer;
+            try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (fc.size() != size) {
+                    mapped -= size;
+                    return null;
+                }
+                buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } catch (IOException e) {
+                mapped -= size;
+                throw e;
+            }
+            m = new Mapping(file, mtime, buffer);
+            m.refs = 1;
+            mappings.put(file, m);
+            return new MappedSource(m);
+        }
+    }
+
+    synchronized void invalidate(Path file) {
+        Mapping m = mappings.get(file);
+        if (m != null) evict(m);
+    }
+
+    synchronized String stats() {
+        return "mapped=" + mapped + "/" + budget + " mappings=" + mappings.size() + " hits=" + hits.sum()
+                + " misses=" + misses.sum() + " bypassed=" + bypassed.sum() + " evictions=" + evictions.sum();
+    }
+
+    private boolean reserve(long size) {
+        Iterator<Mapping> it = mappings.values().iterator();
+        while (mapped + size > budget && it.hasNext()) {
+            Mapping m = it.next();
+            if (m.refs > 0) continue;
+            it.remove();
+            m.evicted = true;
+            mapped -= m.buffer.capacity();
+            evictions.increment();
+        }
+        if (mapped + size > budget) return false;
+        mapped += size;
+        return true;
+    }
+
+    private void evict(Mapping m) {
+        mappings.remove(m.path);
+        m.evicted = true;
+        evictions.increment();
+        if (m.refs == 0) mapped -= m.buffer.capacity();
+    }
+
+    private synchronized void release(Mapping m) {
+        if (--m.refs == 0 && m.evicted) mapped -= m.buffer.capacity();
+    }
+
+    private final class MappedSource implements ContentSource {
+        private final Mapping mapping;
+        private boolean closed;
+
+        MappedSource(Mapping mapping) {
+            this.mapping = mapping;
+        }
+
+        @Override
+        public long size() {
+            return mapping.buffer.capacity();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            if (position >= size()) return 0;
+            ByteBuffer slice = mapping.buffer.slice((int) position, (int) Math.min(count, size() - position));
+            try {
+                return target.write(slice);
+            } catch (InternalError e) {
+                throw new IOException("Fichier modifié pendant le transfert", e);
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            if (position >= size()) return -1;
+            int n = (int) Math.min(dst.remaining(), size() - position);
+            try {
+                dst.put(dst.position(), mapping.buffer, (int) position, n);
+            } catch (InternalError e) {
+                throw new IOException("Fichier modifié pendant le transfert", e);
+            }
+            dst.position(dst.position() + n);
+            return n;
+        }
+
+        @Override
+        public void checksum(long position, long count, Checksum crc) throws IOException {
+            if (position + count > size()) throw new IOException("Fichier tronqué pendant le transfert");
+            try {
+                crc.update(mapping.buffer.slice((int) position, (int) count));
+            } catch (InternalError e) {
+                throw new IOException("Fichier modifié pendant le transfert", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            release(mapping);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package server;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+final class Metrics implements MetricsMXBean {
+    private static final int MAX_COMMANDS = 64;
+    private static final String OTHER = "other";
+
+    private final long startMillis = System.currentTimeMillis();
+    private final ConcurrentHashMap<String, Command> commands = new ConcurrentHashMap<>();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final LongAdder totalSessions = new LongAdder();
+    private final LongAdder sessionErrors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    static final class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            counts.incrementAndGet(index(value));
+            total.increment();
+            if (value > max.get()) max.accumulateAndGet(value, Math::max);
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        long percentile(double p) {
+            long n = total.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(p / 100.0 * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(max.get(), upperBound(i));
+            }
+            return max.get();
+        }
+
+        private static int index(long v) {
+            if (v < 2 * SUB) return (int) v;
+            int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            return (shift + 1) * SUB + (int) (v >>> shift) - SUB;
+        }
+
+        private static long upperBound(int index) {
+            if (index < 2 * SUB) return index;
+            int shift = index / SUB - 1;
+            long sub = index % SUB + SUB;
+            return ((sub + 1) << shift) - 1;
+        }
+    }
+
+    private static final class Command {
+        final Histogram latency = new Histogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    }
+
+    void sessionOpened() {
+        activeSessions.incrementAndGet();
+        totalSessions.increment();
+    }
+
+    void sessionClosed() {
+        activeSessions.decrementAndGet();
+    }
+
+    void sessionFailed() {
+        sessionErrors.increment();
+    }
+
+    void record(String name, boolean ok, long in, long out, long nanos) {
+        Command c = commands.get(name);
+        if (c == null) {
+            c = commands.size() < MAX_COMMANDS
+                    ? commands.computeIfAbsent(name, k -> new Command())
+                    : commands.computeIfAbsent(OTHER, k -> new Command());
+        }
+        c.latency.record(nanos / 1000);
+        if (!ok) c.errors.increment();
+        if (in > 0) {
+            c.bytes.add(in);
+            bytesIn.add(in);
+        }
+        if (out > 0) {
+            c.bytes.add(out);
+            bytesOut.add(out);
+        }
+    }
+
+    String report() {
+        long uptime = Math.max(1, (System.currentTimeMillis() - startMillis) / 1000);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT,
+                "uptime=%ds sessions.active=%d sessions.total=%d sessions.errors=%d errors=%d\n"
+                        + "bytes.in=%d bytes.out=%d rate.in=%.2fMo/s rate.out=%.2fMo/s\n",
+                uptime, getActiveSessions(), getTotalSessions(), sessionErrors.sum(), getErrors(),
+                getBytesIn(), getBytesOut(), getBytesIn() / (double) uptime / (1024 * 1024),
+                getBytesOut() / (double) uptime / (1024 * 1024)));
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+        sb.append("jvm.allocated=").append(allocatedBytes()).append(" gc.count=").append(gcCount)
+                .append(" gc.time=").append(gcMillis).append("ms ").append(BufferPool.stats()).append('\n');
+        for (Map.Entry<String, Command> e : new TreeMap<>(commands).entrySet()) {
+            Command c = e.getValue();
+            Histogram h = c.latency;
+            sb.append(String.format(Locale.ROOT,
+                    "%s count=%d errors=%d bytes=%d p50=%.3fms p90=%.3fms p99=%.3fms p999=%.3fms max=%.3fms\n",
+                    e.getKey(), h.count(), c.errors.sum(), c.bytes.sum(), h.percentile(50) / 1e3,
+                    h.percentile(90) / 1e3, h.percentile(99) / 1e3, h.percentile(99.9) / 1e3, h.max() / 1e3));
+        }
+        return sb.toString();
+    }
+
+    static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads) {
+            return threads.getTotalThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    @Override
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    @Override
+    public long getTotalSessions() {
+        return totalSessions.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        long sum = 0;
+        for (Command c : commands.values()) sum += c.errors.sum();
+        return sum;
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        Map<String, Long> m = new TreeMap<>();
+        commands.forEach((k, c) -> m.put(k, c.latency.count()));
+        return m;
+    }
+
+    @Override
+    public Map<String, Long> getP99Micros() {
+        Map<String, Long> m = new TreeMap<>();
+        commands.forEach((k, c) -> m.put(k, c.latency.percentile(99)));
+        return m;
+    }
+
+    @Override
+    public String getReport() {
+        return report();
+    }
+}
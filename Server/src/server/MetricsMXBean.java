@@ -0,0 +1,22 @@
+package server;
+
+import java.util.Map;
+
+public interface MetricsMXBean {
+
+    int getActiveSessions();
+
+    long getTotalSessions();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getErrors();
+
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Long> getP99Micros();
+
+    String getReport();
+}
@@ -0,0 +1,273 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+final class Mux {
+    static final byte OPEN = 1;
+    static final byte DATA = 2;
+    static final byte WINDOW = 3;
+    static final byte CLOSE = 4;
+    static final int FRAME_SIZE = 16 * 1024;
+
+    private final DataInputStream in;
+    private final CoalescingOutputStream sink;
+    private final DataOutputStream out;
+    private final int window;
+    private final int maxStreams;
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+    private final ConcurrentHashMap<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private volatile boolean broken;
+
+    interface Opener {
+        void open(Stream stream, Stream parent) throws IOException;
+    }
+
+    Mux(DataInputStream in, CoalescingOutputStream sink, int window, int maxStreams) {
+        this.in = in;
+        this.sink = sink;
+        this.out = new DataOutputStream(sink);
+        this.window = window;
+        this.maxStreams = maxStreams;
+    }
+
+    void serve(Opener opener) throws IOException {
+        byte[] payload = new byte[FRAME_SIZE];
+        try {
+            while (true) {
+                int id;
+                try {
+                    id = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                byte type = in.readByte();
+                int len = in.readInt();
+                if (len < 0 || len > FRAME_SIZE || id <= 0) throw new IOException("Trame multiplexée invalide");
+                in.readFully(payload, 0, len);
+                Stream s = streams.get(id);
+                switch (type) {
+                    case OPEN -> {
+                        if (s != null || len != 4) throw new IOException("Trame multiplexée invalide");
+                        Stream stream = new Stream(id);
+                        if (streams.size() >= maxStreams) {
+                            stream.close();
+                            continue;
+                        }
+                        streams.put(id, stream);
+                        opener.open(stream, streams.get(readInt(payload)));
+                    }
+                    case DATA -> {
+                        if (s != null) s.deliver(payload, len);
+                    }
+                    case WINDOW -> {
+                        if (len != 4) throw new IOException("Trame multiplexée invalide");
+                        if (s != null) s.grant(readInt(payload));
+                    }
+                    case CLOSE -> {
+                        if (s != null) s.remoteClose();
+                    }
+                    default -> throw new IOException("Trame multiplexée invalide");
+                }
+            }
+        } finally {
+            broken = true;
+            for (Stream s : streams.values()) {
+                s.abort();
+            }
+        }
+    }
+
+    private void frame(int id, byte type, byte[] b, int off, int len) throws IOException {
+        writeLock.lock();
+        try {
+            if (broken) throw new IOException("Connexion multiplexée interrompue");
+            out.writeInt(id);
+            out.writeByte(type);
+            out.writeInt(len);
+            if (len > 0) out.write(b, off, len);
+            if (!writeLock.hasQueuedThreads()) sink.flushNow();
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static int readInt(byte[] b) {
+        return (b[0] & 0xFF) << 24 | (b[1] & 0xFF) << 16 | (b[2] & 0xFF) << 8 | (b[3] & 0xFF);
+    }
+
+    final class Stream {
+        final int id;
+        final InputStream input = new Input();
+        final OutputStream output = new BufferedOutputStream(new Output(), FRAME_SIZE);
+        volatile ClientHandler handler;
+        private final byte[] ring = new byte[window];
+        private int head;
+        private int count;
+        private int unacked;
+        private int credit = window;
+        private boolean remoteClosed;
+        private boolean localClosed;
+        private boolean aborted;
+
+        private Stream(int id) {
+            this.id = id;
+        }
+
+        void close() {
+            try {
+                output.flush();
+            } catch (IOException ignored) {
+            }
+            synchronized (this) {
+                if (localClosed) return;
+                localClosed = true;
+                notifyAll();
+            }
+            try {
+                frame(id, CLOSE, null, 0, 0);
+            } catch (IOException ignored) {
+            }
+            release();
+        }
+
+        private synchronized void deliver(byte[] b, int len) throws IOException {
+            if (remoteClosed || localClosed) return;
+            if (len > ring.length - count) throw new IOException("Fenêtre de flux dépassée");
+            int tail = (head + count) % ring.length;
+            int first = Math.min(len, ring.length - tail);
+            System.arraycopy(b, 0, ring, tail, first);
+            System.arraycopy(b, first, ring, 0, len - first);
+            count += len;
+            notifyAll();
+        }
+
+        private synchronized void grant(int n) {
+            credit += n;
+            notifyAll();
+        }
+
+        private void remoteClose() {
+            synchronized (this) {
+                remoteClosed = true;
+                notifyAll();
+            }
+            release();
+        }
+
+        private synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        private void release() {
+            synchronized (this) {
+                if (!localClosed || !remoteClosed) return;
+            }
+            streams.remove(id, this);
+        }
+
+        private int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            int n;
+            int ack = 0;
+            synchronized (this) {
+                while (count == 0 && !remoteClosed && !aborted) {
+                    await();
+                }
+                if (count == 0) {
+                    if (remoteClosed) return -1;
+                    throw new IOException("Connexion multiplexée interrompue");
+                }
+                n = Math.min(len, count);
+                int first = Math.min(n, ring.length - head);
+                System.arraycopy(ring, head, b, off, first);
+                System.arraycopy(ring, 0, b, off + first, n - first);
+                head = (head + n) % ring.length;
+                count -= n;
+                unacked += n;
+                if (unacked >= ring.length / 2 && !remoteClosed) {
+                    ack = unacked;
+                    unacked = 0;
+                }
+            }
+            if (ack > 0) {
+                frame(id, WINDOW, new byte[] { (byte) (ack >>> 24), (byte) (ack >>> 16), (byte) (ack >>> 8), (byte) ack },
+                        0, 4);
+            }
+            return n;
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n;
+                synchronized (this) {
+                    while (credit == 0 && !aborted && !remoteClosed && !localClosed) {
+                        await();
+                    }
+                    if (aborted || remoteClosed || localClosed) throw new IOException("Flux fermé par le pair");
+                    n = Math.min(Math.min(len, credit), FRAME_SIZE);
+                    credit -= n;
+                }
+                frame(id, DATA, b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void await() throws IOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Flux interrompu");
+            }
+        }
+
+        private final class Input extends InputStream {
+            private final byte[] one = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                return Stream.this.read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Stream.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                synchronized (Stream.this) {
+                    return count;
+                }
+            }
+        }
+
+        private final class Output extends OutputStream {
+            private final byte[] one = new byte[1];
+
+            @Override
+            public void write(int b) throws IOException {
+                one[0] = (byte) b;
+                Stream.this.write(one, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Stream.this.write(b, off, len);
+            }
+        }
+    }
+}
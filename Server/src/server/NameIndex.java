@@ -0,0 +1,661 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+final class NameIndex {
+    private static final int CHUNK_ENTRIES = 64 * 1024;
+
+    private final Path baseDir;
+    private final ForkJoinPool pool;
+    private final WatchService watcher;
+    private final int watchLimit;
+    private final List<Path> pending = new ArrayList<>();
+    private Dir root;
+    private View view;
+    private long entries;
+    private int watched;
+    private long buildMillis = -1;
+
+    interface Sink {
+        void accept(String line) throws IOException;
+    }
+
+    private record Names(byte[] pool, int[] ends) {
+        static final Names EMPTY = new Names(new byte[0], new int[0]);
+
+        int size() {
+            return ends.length;
+        }
+
+        int start(int i) {
+            return i == 0 ? 0 : ends[i - 1];
+        }
+
+        int find(byte[] name) {
+            int lo = 0;
+            int hi = ends.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = Arrays.compareUnsigned(pool, start(mid), ends[mid], name, 0, name.length);
+                if (c < 0) lo = mid + 1;
+                else if (c > 0) hi = mid - 1;
+                else return mid;
+            }
+            return -(lo + 1);
+        }
+
+        int lowerBound(byte[] key) {
+            if (key == null) return ends.length;
+            int lo = 0;
+            int hi = ends.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (Arrays.compareUnsigned(pool, start(mid), ends[mid], key, 0, key.length) < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        Names insert(int at, byte[] name) {
+            int offset = start(at);
+            byte[] p = new byte[pool.length + name.length];
+            System.arraycopy(pool, 0, p, 0, offset);
+            System.arraycopy(name, 0, p, offset, name.length);
+            System.arraycopy(pool, offset, p, offset + name.length, pool.length - offset);
+            int[] e = new int[ends.length + 1];
+            System.arraycopy(ends, 0, e, 0, at);
+            e[at] = offset + name.length;
+            for (int i = at; i < ends.length; i++) {
+                e[i + 1] = ends[i] + name.length;
+            }
+            return new Names(p, e);
+        }
+
+        Names remove(int at) {
+            int offset = start(at);
+            int len = ends[at] - offset;
+            byte[] p = new byte[pool.length - len];
+            System.arraycopy(pool, 0, p, 0, offset);
+            System.arraycopy(pool, ends[at], p, offset, pool.length - ends[at]);
+            int[] e = new int[ends.length - 1];
+            System.arraycopy(ends, 0, e, 0, at);
+            for (int i = at + 1; i < ends.length; i++) {
+                e[i - 1] = ends[i] - len;
+            }
+            return new Names(p, e);
+        }
+
+        static Names of(List<byte[]> names) {
+            if (names.isEmpty()) return EMPTY;
+            names.sort(Arrays::compareUnsigned);
+            int total = 0;
+            for (byte[] n : names) {
+                total += n.length;
+            }
+            byte[] p = new byte[total];
+            int[] e = new int[names.size()];
+            int offset = 0;
+            for (int i = 0; i < names.size(); i++) {
+                byte[] n = names.get(i);
+                System.arraycopy(n, 0, p, offset, n.length);
+                offset += n.length;
+                e[i] = offset;
+            }
+            return new Names(p, e);
+        }
+    }
+
+    private static final class Dir {
+        final Dir parent;
+        final byte[] name;
+        volatile Names files = Names.EMPTY;
+        HashMap<String, Dir> subdirs;
+        WatchKey key;
+
+        Dir(Dir parent, byte[] name) {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        String path() {
+            if (parent == null) return "";
+            String p = parent.path();
+            String n = new String(name, StandardCharsets.UTF_8);
+            return p.isEmpty() ? n : p + "/" + n;
+        }
+    }
+
+    private record View(Dir[] dirs, long[] starts) {}
+
+    NameIndex(Path baseDir, int threads, int watchLimit) throws IOException {
+        this.baseDir = baseDir;
+        this.pool = new ForkJoinPool(threads);
+        this.watchLimit = watchLimit;
+        this.watcher = watchLimit > 0 ? FileSystems.getDefault().newWatchService() : null;
+        Thread t = new Thread(this::build, "name-index");
+        t.setDaemon(true);
+        t.start();
+        if (watcher != null) {
+            Thread w = new Thread(this::watch, "index-watch");
+            w.setDaemon(true);
+            w.start();
+        }
+    }
+
+    synchronized boolean ready() {
+        return root != null;
+    }
+
+    synchronized String stats() {
+        return "index entries=" + entries + " directories=" + (root != null ? snapshot().dirs().length : 0)
+                + " watched=" + watched + (buildMillis >= 0 ? " build=" + buildMillis + "ms" : " build=en cours");
+    }
+
+    void refresh(Path path) {
+        if (!path.startsWith(baseDir) || Listing.hidden(path)) return;
+        synchronized (this) {
+            if (root == null) {
+                pending.add(path);
+                return;
+            }
+            apply(path);
+        }
+    }
+
+    long find(Glob glob, long skip, long limit, Sink sink) throws IOException {
+        View v = snapshot();
+        List<int[]> chunks = new ArrayList<>();
+        int from = 0;
+        for (int i = 0; i < v.dirs().length; i++) {
+            if (v.starts()[i + 1] - v.starts()[from] >= CHUNK_ENTRIES || i == v.dirs().length - 1) {
+                chunks.add(new int[] { from, i + 1 });
+                from = i + 1;
+            }
+        }
+        int wave = Math.max(1, pool.getParallelism() * 2);
+        long index = 0;
+        long sent = 0;
+        for (int c = 0; c < chunks.size(); c += wave) {
+            List<Callable<List<String>>> tasks = new ArrayList<>();
+            for (int[] range : chunks.subList(c, Math.min(chunks.size(), c + wave))) {
+                tasks.add(() -> match(v.dirs(), range[0], range[1], glob));
+            }
+            for (Future<List<String>> f : pool.invokeAll(tasks)) {
+                List<String> lines;
+                try {
+                    lines = f.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new IOException("Recherche interrompue", e);
+                }
+                for (String line : lines) {
+                    if (index++ < skip) continue;
+                    if (limit > 0 && sent == limit) return index - 1;
+                    sink.accept(line);
+                    sent++;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> match(Dir[] dirs, int from, int to, Glob glob) {
+        List<String> out = new ArrayList<>();
+        byte[] scratch = new byte[256];
+        for (int d = from; d < to; d++) {
+            Dir dir = dirs[d];
+            Names files = dir.files;
+            String prefix = null;
+            byte[] prefixBytes = null;
+            if (glob.fullPath()) {
+                prefix = dir.path();
+                prefixBytes = prefix.isEmpty() ? new byte[0] : (prefix + "/").getBytes(StandardCharsets.UTF_8);
+                if (dir.parent != null) {
+                    byte[] self = prefix.getBytes(StandardCharsets.UTF_8);
+                    if (glob.matches(self, 0, self.length)) out.add("[Folder] " + prefix + "\n");
+                }
+            } else if (dir.parent != null && glob.matches(dir.name, 0, dir.name.length)) {
+                out.add("[Folder] " + dir.path() + "\n");
+            }
+            int first = 0;
+            int last = files.size();
+            if (prefixBytes == null && glob.prefix().length > 0) {
+                first = files.lowerBound(glob.prefix());
+                last = files.lowerBound(glob.prefixLimit());
+            }
+            for (int i = first; i < last; i++) {
+                int s = files.start(i);
+                int e = files.ends()[i];
+                boolean hit;
+                if (prefixBytes != null) {
+                    int len = prefixBytes.length + e - s;
+                    if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+                    System.arraycopy(prefixBytes, 0, scratch, 0, prefixBytes.length);
+                    System.arraycopy(files.pool(), s, scratch, prefixBytes.length, e - s);
+                    hit = glob.matches(scratch, 0, len);
+                } else {
+                    hit = glob.matches(files.pool(), s, e);
+                }
+                if (hit) {
+                    if (prefix == null) prefix = dir.path();
+                    String name = new String(files.pool(), s, e - s, StandardCharsets.UTF_8);
+                    out.add("[File] " + (prefix.isEmpty() ? name : prefix + "/" + name) + "\n");
+                }
+            }
+        }
+        return out;
+    }
+
+    private synchronized View snapshot() {
+        if (root == null) return null;
+        if (view == null) {
+            List<Dir> dirs = new ArrayList<>();
+            collect(root, dirs);
+            long[] starts = new long[dirs.size() + 1];
+            for (int i = 0; i < dirs.size(); i++) {
+                starts[i + 1] = starts[i] + 1 + dirs.get(i).files.size();
+            }
+            view = new View(dirs.toArray(new Dir[0]), starts);
+        }
+        return view;
+    }
+
+    private static void collect(Dir dir, List<Dir> out) {
+        out.add(dir);
+        if (dir.subdirs == null) return;
+        String[] names = dir.subdirs.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        for (String n : names) {
+            collect(dir.subdirs.get(n), out);
+        }
+    }
+
+    private void build() {
+        long start = System.currentTimeMillis();
+        Dir built = new Dir(null, new byte[0]);
+        long count = pool.invoke(new ScanTask(baseDir, built));
+        synchronized (this) {
+            root = built;
+            entries = count;
+            view = null;
+            register(built, baseDir);
+            for (Path p : pending) {
+                apply(p);
+            }
+            pending.clear();
+            buildMillis = System.currentTimeMillis() - start;
+        }
+        System.out.println("Index des noms: " + count + " entrées en " + buildMillis + " ms");
+    }
+
+    @SuppressWarnings("serial")
+    private final class ScanTask extends RecursiveTask<Long> {
+        private final Path path;
+        private final Dir dir;
+
+        ScanTask(Path path, Dir dir) {
+            this.path = path;
+            this.dir = dir;
+        }
+
+        @Override
+        protected Long compute() {
+            List<byte[]> names = new ArrayList<>();
+            List<ScanTask> children = new ArrayList<>();
+            HashMap<String, Dir> subdirs = new HashMap<>();
+            try {
+                Listing.scan(path, entry -> {
+                    if (entry.directory()) {
+                        Dir child = new Dir(dir, entry.name().getBytes(StandardCharsets.UTF_8));
+                        subdirs.put(entry.name(), child);
+                        ScanTask task = new ScanTask(path.resolve(entry.name()), child);
+                        task.fork();
+                        children.add(task);
+                    } else {
+                        names.add(entry.name().getBytes(StandardCharsets.UTF_8));
+                    }
+                    return true;
+                });
+            } catch (IOException ignored) {
+            }
+            dir.files = Names.of(names);
+            dir.subdirs = subdirs.isEmpty() ? null : subdirs;
+            long count = names.size();
+            for (ScanTask t : children) {
+                count += 1 + t.join();
+            }
+            return count;
+        }
+    }
+
+    private void apply(Path path) {
+        if (path.equals(baseDir)) {
+            replace(root, baseDir);
+            return;
+        }
+        Dir parent = lookup(path.getParent());
+        if (parent == null) {
+            apply(path.getParent());
+            return;
+        }
+        String name = path.getFileName().toString();
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int at = parent.files.find(bytes);
+        Dir sub = parent.subdirs != null ? parent.subdirs.get(name) : null;
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            if (at >= 0) {
+                parent.files = parent.files.remove(at);
+                entries--;
+            }
+            if (sub == null) {
+                sub = new Dir(parent, bytes);
+                if (parent.subdirs == null) parent.subdirs = new HashMap<>();
+                parent.subdirs.put(name, sub);
+                entries++;
+            }
+            replace(sub, path);
+        } else if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            if (sub != null) detach(parent, name, sub);
+            if (at < 0) {
+                parent.files = parent.files.insert(-at - 1, bytes);
+                entries++;
+            }
+        } else {
+            if (sub != null) detach(parent, name, sub);
+            if (at >= 0) {
+                parent.files = parent.files.remove(at);
+                entries--;
+            }
+        }
+    }
+
+    private void replace(Dir dir, Path path) {
+        entries -= count(dir) - 1;
+        unregister(dir);
+        entries += pool.invoke(new ScanTask(path, dir));
+        register(dir, path);
+        view = null;
+    }
+
+    private void detach(Dir parent, String name, Dir sub) {
+        parent.subdirs.remove(name);
+        if (parent.subdirs.isEmpty()) parent.subdirs = null;
+        entries -= count(sub);
+        unregister(sub);
+        view = null;
+    }
+
+    private static long count(Dir dir) {
+        long n = 1 + dir.files.size();
+        if (dir.subdirs != null) {
+            for (Dir child : dir.subdirs.values()) {
+                n += count(child);
+            }
+        }
+        return n;
+    }
+
+    private Dir lookup(Path path) {
+        if (!path.startsWith(baseDir)) return null;
+        Dir dir = root;
+        for (Path name : baseDir.relativize(path)) {
+            if (name.toString().isEmpty()) continue;
+            if (dir.subdirs == null) return null;
+            dir = dir.subdirs.get(name.toString());
+            if (dir == null) return null;
+        }
+        return dir;
+    }
+
+    private void register(Dir dir, Path path) {
+        if (watcher == null) return;
+        if (dir.key == null && watched < watchLimit) {
+            try {
+                dir.key = path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                watched++;
+            } catch (IOException ignored) {
+            }
+        }
+        if (dir.subdirs != null) {
+            for (var e : dir.subdirs.entrySet()) {
+                register(e.getValue(), path.resolve(e.getKey()));
+            }
+        }
+    }
+
+    private void unregister(Dir dir) {
+        if (dir.key != null) {
+            dir.key.cancel();
+            dir.key = null;
+            watched--;
+        }
+        if (dir.subdirs != null) {
+            for (Dir child : dir.subdirs.values()) {
+                unregister(child);
+            }
+        }
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    refresh(dir);
+                } else {
+                    refresh(dir.resolve((Path) event.context()));
+                }
+            }
+            key.reset();
+        }
+    }
+
+    static final class Glob {
+        private static final int LITERAL = 0;
+        private static final int ANY = 1;
+        private static final int STAR = 2;
+        private static final int CLASS = 3;
+
+        private final int[] types;
+        private final int[] values;
+        private final List<int[]> classes = new ArrayList<>();
+        private final boolean fullPath;
+        private final byte[] prefix;
+        private final byte[] prefixLimit;
+        private final byte[] suffix;
+        private final boolean simple;
+        private final boolean literal;
+
+        Glob(String pattern) {
+            List<int[]> tokens = new ArrayList<>();
+            int i = 0;
+            while (i < pattern.length()) {
+                int cp = pattern.codePointAt(i);
+                i += Character.charCount(cp);
+                if (cp == '*') {
+                    if (tokens.isEmpty() || tokens.get(tokens.size() - 1)[0] != STAR) tokens.add(new int[] { STAR, 0 });
+                } else if (cp == '?') {
+                    tokens.add(new int[] { ANY, 0 });
+                } else if (cp == '[' && pattern.indexOf(']', i + 1) > 0) {
+                    int end = pattern.indexOf(']', i + 1);
+                    tokens.add(new int[] { CLASS, classes.size() });
+                    classes.add(parseClass(pattern.substring(i, end)));
+                    i = end + 1;
+                } else {
+                    if (cp == '\\' && i < pattern.length()) {
+                        cp = pattern.codePointAt(i);
+                        i += Character.charCount(cp);
+                    }
+                    tokens.add(new int[] { LITERAL, cp });
+                }
+            }
+            types = new int[tokens.size()];
+            values = new int[tokens.size()];
+            for (int t = 0; t < tokens.size(); t++) {
+                types[t] = tokens.get(t)[0];
+                values[t] = tokens.get(t)[1];
+            }
+            fullPath = pattern.indexOf('/') >= 0;
+            int head = 0;
+            while (head < types.length && types[head] == LITERAL) head++;
+            int tail = types.length;
+            while (tail > head && types[tail - 1] == LITERAL) tail--;
+            prefix = literal(0, head);
+            prefixLimit = successor(prefix);
+            suffix = literal(tail, types.length);
+            literal = head == types.length;
+            simple = tail - head == 1 && types[head] == STAR;
+        }
+
+        boolean fullPath() {
+            return fullPath;
+        }
+
+        byte[] prefix() {
+            return prefix;
+        }
+
+        byte[] prefixLimit() {
+            return prefixLimit;
+        }
+
+        private static byte[] successor(byte[] prefix) {
+            byte[] limit = prefix.clone();
+            for (int k = limit.length - 1; k >= 0; k--) {
+                if (limit[k] != (byte) 0xFF) {
+                    limit[k]++;
+                    return Arrays.copyOf(limit, k + 1);
+                }
+            }
+            return null;
+        }
+
+        boolean matches(byte[] s, int from, int to) {
+            int len = to - from;
+            if (literal) {
+                return Arrays.equals(s, from, to, prefix, 0, prefix.length);
+            }
+            if (len < prefix.length + suffix.length) return false;
+            if (!Arrays.equals(s, from, from + prefix.length, prefix, 0, prefix.length)) return false;
+            if (!Arrays.equals(s, to - suffix.length, to, suffix, 0, suffix.length)) return false;
+            if (simple) return true;
+            return match(s, from, to);
+        }
+
+        private boolean match(byte[] s, int from, int to) {
+            int p = 0;
+            int i = from;
+            int starP = -1;
+            int starI = -1;
+            while (i < to) {
+                if (p < types.length && types[p] == STAR) {
+                    starP = p++;
+                    starI = i;
+                    continue;
+                }
+                if (p < types.length && one(p, s, i, to)) {
+                    i = next(s, i, to);
+                    p++;
+                    continue;
+                }
+                if (starP >= 0) {
+                    p = starP + 1;
+                    starI = next(s, starI, to);
+                    i = starI;
+                    continue;
+                }
+                return false;
+            }
+            while (p < types.length && types[p] == STAR) p++;
+            return p == types.length;
+        }
+
+        private boolean one(int p, byte[] s, int i, int to) {
+            if (types[p] == ANY) return true;
+            int cp = decode(s, i, to);
+            if (types[p] == LITERAL) return cp == values[p];
+            int[] cls = classes.get(values[p]);
+            boolean in = false;
+            for (int k = 1; k + 1 < cls.length; k += 2) {
+                if (cp >= cls[k] && cp <= cls[k + 1]) {
+                    in = true;
+                    break;
+                }
+            }
+            return in != (cls[0] == 1);
+        }
+
+        private static int next(byte[] s, int i, int to) {
+            i++;
+            while (i < to && (s[i] & 0xC0) == 0x80) i++;
+            return i;
+        }
+
+        private static int decode(byte[] s, int i, int to) {
+            int b = s[i] & 0xFF;
+            if (b < 0x80) return b;
+            int n = b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : 1;
+            int cp = b & (0x3F >> n);
+            for (int k = 1; k <= n && i + k < to; k++) {
+                cp = (cp << 6) | (s[i + k] & 0x3F);
+            }
+            return cp;
+        }
+
+        private byte[] literal(int from, int to) {
+            StringBuilder sb = new StringBuilder();
+            for (int t = from; t < to; t++) {
+                sb.appendCodePoint(values[t]);
+            }
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static int[] parseClass(String body) {
+            boolean negated = body.startsWith("!") || body.startsWith("^");
+            if (negated) body = body.substring(1);
+            int[] cps = body.codePoints().toArray();
+            List<Integer> ranges = new ArrayList<>();
+            for (int k = 0; k < cps.length; k++) {
+                if (k + 2 < cps.length && cps[k + 1] == '-') {
+                    ranges.add(cps[k]);
+                    ranges.add(cps[k + 2]);
+                    k += 2;
+                } else {
+                    ranges.add(cps[k]);
+                    ranges.add(cps[k]);
+                }
+            }
+            int[] out = new int[ranges.size() + 1];
+            out[0] = negated ? 1 : 0;
+            for (int k = 0; k < ranges.size(); k++) {
+                out[k + 1] = ranges.get(k);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+final class NioServer {
+    private final ServerSocketChannel serverChannel;
+    private final ServerContext context;
+    private final EventLoop[] loops;
+    private final Semaphore slots;
+    private final ExecutorService workers;
+
+    NioServer(ServerSocketChannel serverChannel, ServerContext context, int threads, int maxSessions)
+            throws IOException {
+        this.serverChannel = serverChannel;
+        this.context = context;
+        this.slots = new Semaphore(maxSessions);
+        this.workers = Executors.newFixedThreadPool(Math.max(1, ServerConfig.NIO_WORKERS),
+                Thread.ofPlatform().daemon().name("nio-worker-", 0).factory());
+        this.loops = new EventLoop[Math.max(1, threads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+        }
+    }
+
+    void serve() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            Thread t = new Thread(loops[i], "nio-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        int next = 0;
+        while (true) {
+            slots.acquireUninterruptibly();
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                slots.release();
+                throw e;
+            }
+            loops[next].register(channel);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    private final class EventLoop implements Runnable, Executor {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer scratch = ByteBuffer.allocateDirect(FileTransfer.BUFFER_SIZE);
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    System.err.println("Erreur sélecteur: " + e.getMessage());
+                    return;
+                }
+
+                SocketChannel channel;
+                while ((channel = pending.poll()) != null) {
+                    accept(channel);
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    ((NioSession) key.attachment()).handle(scratch);
+                }
+            }
+        }
+
+        private void accept(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                var remote = channel.socket();
+                String who = remote.getInetAddress().getHostAddress() + ":" + remote.getPort();
+                NioSession session = new NioSession(channel, who, context, this, workers, slots::release);
+                session.start(channel.register(selector, 0, session));
+            } catch (IOException e) {
+                slots.release();
+                System.err.println("Erreur E/S: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+final class NioSession {
+    private static final int MAX_FRAME = 2 + 65535;
+    private static final int MAX_PENDING = 64 * 1024;
+    private static final Set<String> INLINE_COMMANDS = Set.of("pwd", "exit", "compress", "integrity", "throttle",
+            "stats", "cachestats", "find", "du");
+
+    private enum State { COMMAND, UPLOAD_SIZE, UPLOAD_BODY, DOWNLOAD, CLOSING }
+
+    private interface Blocking {
+        boolean run() throws IOException;
+    }
+
+    private interface Resume {
+        void run(boolean result) throws IOException;
+    }
+
+    private final SocketChannel channel;
+    private final Response response = new Response();
+    private final ClientHandler handler;
+    private final Storage storage;
+    private final Runnable released;
+    private final Executor loop;
+    private final Executor workers;
+    private final ArrayDeque<ByteBuffer> outQueue = new ArrayDeque<>();
+    private ByteBuffer inBuf = ByteBuffer.allocate(512);
+    private SelectionKey key;
+    private State state = State.COMMAND;
+
+    private FileChannel file;
+    private ContentSource source;
+    private long position;
+    private long remaining;
+    private long moved;
+    private ClientHandler.Transfer upload;
+    private String refusal;
+    private boolean busy;
+
+    NioSession(SocketChannel channel, String who, ServerContext context, Executor loop, Executor workers,
+            Runnable released) {
+        this.channel = channel;
+        this.storage = context.storage;
+        this.loop = loop;
+        this.workers = workers;
+        this.released = released;
+        this.handler = new ClientHandler(who, context, response);
+    }
+
+    void start(SelectionKey key) throws IOException {
+        this.key = key;
+        handler.greet();
+        enqueueResponse();
+        updateInterest();
+    }
+
+    void handle(ByteBuffer scratch) {
+        try {
+            if (key.isValid() && key.isWritable()) onWritable();
+            if (key.isValid() && key.isReadable()) onReadable(scratch);
+        } catch (IOException e) {
+            handler.error(e);
+            close();
+        }
+    }
+
+    private void onReadable(ByteBuffer scratch) throws IOException {
+        if (state == State.UPLOAD_BODY && inBuf.position() == 0) {
+            readBody(scratch);
+            if (state == State.UPLOAD_BODY || busy) return;
+        }
+        int n = channel.read(inBuf);
+        if (n == -1) {
+            handler.disconnected();
+            close();
+            return;
+        }
+        process();
+    }
+
+    private void readBody(ByteBuffer scratch) throws IOException {
+        while (remaining > 0) {
+            scratch.clear().limit((int) Math.min(scratch.capacity(), remaining));
+            int n = channel.read(scratch);
+            if (n == -1) throw new IOException("Stream ended prematurely");
+            if (n == 0) return;
+            scratch.flip();
+            writeBody(scratch);
+        }
+    }
+
+    private void writeBody(ByteBuffer data) throws IOException {
+        if (file == null) {
+            moved += data.remaining();
+            remaining -= data.remaining();
+            data.position(data.limit());
+        }
+        while (data.hasRemaining()) {
+            int w = file.write(data, position);
+            position += w;
+            moved += w;
+            remaining -= w;
+        }
+        if (remaining == 0) finishUpload();
+    }
+
+    private void process() throws IOException {
+        if (busy) return;
+        inBuf.flip();
+        int needed = 0;
+        try {
+            while (!busy && outQueue.isEmpty() && response.size() < MAX_PENDING && (state == State.COMMAND || state == State.UPLOAD_SIZE || state == State.UPLOAD_BODY)) {
+                if (state == State.COMMAND) {
+                    if (inBuf.remaining() < 2) break;
+                    int frame = 2 + (inBuf.getShort(inBuf.position()) & 0xFFFF);
+                    if (inBuf.remaining() < frame) {
+                        needed = frame;
+                        break;
+                    }
+                    execute(decode(frame));
+                } else if (state == State.UPLOAD_SIZE) {
+                    if (inBuf.remaining() < 8) break;
+                    remaining = inBuf.getLong();
+                    refusal = handler.admit(upload, remaining);
+                    if (refusal != null) closeFile();
+                    if (remaining <= 0) {
+                        finishUpload();
+                    } else {
+                        state = State.UPLOAD_BODY;
+                    }
+                } else {
+                    if (!inBuf.hasRemaining()) break;
+                    ByteBuffer chunk = inBuf.slice();
+                    chunk.limit((int) Math.min(chunk.limit(), remaining));
+                    inBuf.position(inBuf.position() + chunk.remaining());
+                    writeBody(chunk);
+                }
+            }
+        } finally {
+            inBuf.compact();
+            enqueueResponse();
+        }
+        if (needed > inBuf.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.min(MAX_FRAME, Math.max(needed, inBuf.capacity() * 2)));
+            inBuf.flip();
+            bigger.put(inBuf);
+            inBuf = bigger;
+        }
+        updateInterest();
+    }
+
+    private void execute(String line) throws IOException {
+        if (INLINE_COMMANDS.contains(handler.commandName(line))) {
+            dispatched(handler.dispatch(line));
+        } else {
+            offload(() -> handler.dispatch(line), this::dispatched);
+        }
+    }
+
+    private void dispatched(boolean keepOpen) throws IOException {
+        if (!keepOpen) {
+            enqueueResponse();
+            state = State.CLOSING;
+            return;
+        }
+        ClientHandler.Transfer t = handler.takeDeferred();
+        if (t == null) return;
+        enqueueResponse();
+        if (t.upload()) {
+            file = FileChannel.open(t.path(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (t.truncate()) file.truncate(t.position());
+            upload = t;
+            state = State.UPLOAD_SIZE;
+        } else {
+            source = storage.open(t.path());
+            remaining = t.size();
+            state = State.DOWNLOAD;
+        }
+        position = t.position();
+        moved = 0;
+    }
+
+    private void finishUpload() throws IOException {
+        closeFile();
+        state = State.COMMAND;
+        ClientHandler.Transfer t = upload;
+        String refused = refusal;
+        long bytes = moved;
+        upload = null;
+        refusal = null;
+        offload(() -> {
+            if (refused != null) {
+                handler.uploadRefused(t, refused);
+            } else {
+                handler.uploadComplete(t);
+            }
+            handler.deferredFinished(bytes, false);
+            return true;
+        }, done -> {});
+    }
+
+    private void offload(Blocking work, Resume resume) {
+        busy = true;
+        updateInterest();
+        workers.execute(() -> {
+            boolean result = false;
+            IOException failure = null;
+            try {
+                result = work.run();
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(e);
+            }
+            boolean r = result;
+            IOException f = failure;
+            loop.execute(() -> resumed(r, f, resume));
+        });
+    }
+
+    private void resumed(boolean result, IOException failure, Resume resume) {
+        busy = false;
+        if (!channel.isOpen()) return;
+        try {
+            if (failure != null) throw failure;
+            resume.run(result);
+            enqueueResponse();
+            process();
+        } catch (IOException e) {
+            handler.error(e);
+            close();
+        }
+    }
+
+    private void onWritable() throws IOException {
+        while (!outQueue.isEmpty()) {
+            ByteBuffer head = outQueue.peek();
+            channel.write(head);
+            if (head.hasRemaining()) {
+                updateInterest();
+                return;
+            }
+            BufferPool.release(outQueue.poll());
+        }
+        if (state == State.DOWNLOAD) {
+            while (remaining > 0) {
+                long n = source.transferTo(position, remaining, channel);
+                if (n == 0) {
+                    if (position >= source.size()) throw new IOException("Fichier tronqué pendant le transfert");
+                    updateInterest();
+                    return;
+                }
+                position += n;
+                moved += n;
+                remaining -= n;
+            }
+            closeFile();
+            state = State.COMMAND;
+            handler.deferredFinished(moved, false);
+        }
+        if (state == State.CLOSING) {
+            close();
+            return;
+        }
+        process();
+    }
+
+    private void enqueueResponse() {
+        if (!busy && response.size() > 0) {
+            outQueue.add(response.drain());
+        }
+    }
+
+    private String decode(int frame) throws IOException {
+        int start = inBuf.arrayOffset() + inBuf.position();
+        byte[] array = inBuf.array();
+        for (int i = start + 2; i < start + frame; i++) {
+            if (array[i] < 0) {
+                byte[] bytes = new byte[frame];
+                inBuf.get(bytes);
+                return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+            }
+        }
+        inBuf.position(inBuf.position() + frame);
+        return new String(array, start + 2, frame - 2, StandardCharsets.ISO_8859_1);
+    }
+
+    private void updateInterest() {
+        if (!key.isValid()) return;
+        int ops;
+        if (busy) {
+            ops = outQueue.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+        } else if (!outQueue.isEmpty() || state == State.DOWNLOAD || state == State.CLOSING) {
+            ops = SelectionKey.OP_WRITE;
+        } else {
+            ops = SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    private void closeFile() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+        if (source != null) {
+            source.close();
+            source = null;
+        }
+    }
+
+    private void close() {
+        if (!channel.isOpen()) return;
+        handler.closed();
+        key.cancel();
+        try {
+            closeFile();
+        } catch (IOException ignored) {}
+        if (upload != null) handler.uploadAborted(upload);
+        handler.deferredFinished(moved, true);
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+        released.run();
+        while (!outQueue.isEmpty()) {
+            BufferPool.release(outQueue.poll());
+        }
+    }
+
+    private static final class Response extends ByteArrayOutputStream {
+        private Response() {
+            super(256);
+        }
+
+        private ByteBuffer drain() {
+            ByteBuffer b = BufferPool.direct(count);
+            b.put(buf, 0, count).flip();
+            reset();
+            return b;
+        }
+    }
+}
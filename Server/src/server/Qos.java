@@ -0,0 +1,334 @@
+package server;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+final class Qos implements QosMXBean {
+    static final int QUANTUM = FileTransfer.BUFFER_SIZE;
+    private static final long BURST_NANOS = 50_000_000;
+    private static final long YIELD_NANOS = 200_000;
+    private static final long MAX_YIELD_NANOS = 20_000_000;
+
+    private final Bucket global = new Bucket();
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+    private final AtomicInteger interactive = new AtomicInteger();
+    private final LongAdder throttledNanos = new LongAdder();
+    private final LongAdder yieldedNanos = new LongAdder();
+    private final LongAdder queuedNanos = new LongAdder();
+    private volatile long globalRate;
+    private volatile long hostRate;
+    private volatile long sessionRate;
+    private volatile int maxTransfers;
+    private final ReentrantLock gate = new ReentrantLock();
+    private final Condition released = gate.newCondition();
+    private int transfers;
+
+    private static final class Bucket {
+        private long next;
+
+        synchronized long reserve(long bytes, long rate, long now) {
+            if (rate <= 0) return 0;
+            if (next < now - BURST_NANOS) next = now - BURST_NANOS;
+            next += bytes * 1_000_000_000L / rate;
+            return next - now;
+        }
+    }
+
+    private static final class Host {
+        final Bucket bucket = new Bucket();
+        int sessions;
+    }
+
+    private static final class Session {
+        final Bucket bucket = new Bucket();
+        final ReentrantLock lock = new ReentrantLock();
+        int transfers;
+    }
+
+    Qos(long globalRate, long hostRate, long sessionRate, int maxTransfers) {
+        this.globalRate = globalRate;
+        this.hostRate = hostRate;
+        this.sessionRate = sessionRate;
+        this.maxTransfers = maxTransfers;
+    }
+
+    Limiter limiter(String host) {
+        Host h = hosts.compute(host, (k, v) -> {
+            if (v == null) v = new Host();
+            v.sessions++;
+            return v;
+        });
+        return new Limiter(host, h, new Session());
+    }
+
+    void set(String scope, long rate) {
+        switch (scope) {
+            case "global" -> globalRate = rate;
+            case "ip" -> hostRate = rate;
+            case "session" -> sessionRate = rate;
+            case "transfers" -> resize((int) rate);
+            default -> throw new IllegalArgumentException(scope);
+        }
+    }
+
+    String describe() {
+        return String.format(Locale.ROOT,
+                "global=%s ip=%s session=%s transfers=%d/%s interactive=%d throttled=%.1fs yielded=%.1fs queued=%.1fs",
+                rate(globalRate), rate(hostRate), rate(sessionRate), activeTransfers(),
+                maxTransfers > 0 ? Integer.toString(maxTransfers) : "illimité", interactive.get(),
+                throttledNanos.sum() / 1e9, yieldedNanos.sum() / 1e9, queuedNanos.sum() / 1e9);
+    }
+
+    static long parseRate(String s) {
+        String v = s.trim().toUpperCase(Locale.ROOT);
+        if (v.endsWith("/S")) v = v.substring(0, v.length() - 2);
+        if (v.endsWith("O") || v.endsWith("B")) v = v.substring(0, v.length() - 1);
+        long unit = 1;
+        if (v.endsWith("K")) unit = 1L << 10;
+        else if (v.endsWith("M")) unit = 1L << 20;
+        else if (v.endsWith("G")) unit = 1L << 30;
+        if (unit > 1) v = v.substring(0, v.length() - 1);
+        long n = Long.parseLong(v);
+        if (n < 0) throw new NumberFormatException(s);
+        return n * unit;
+    }
+
+    private static String rate(long r) {
+        if (r <= 0) return "illimité";
+        if (r % (1L << 20) == 0) return (r >> 20) + "M/s";
+        if (r % (1L << 10) == 0) return (r >> 10) + "K/s";
+        return r + "/s";
+    }
+
+    private int activeTransfers() {
+        gate.lock();
+        try {
+            return transfers;
+        } finally {
+            gate.unlock();
+        }
+    }
+
+    private void admit() throws IOException {
+        long start = System.nanoTime();
+        gate.lock();
+        try {
+            while (maxTransfers > 0 && transfers >= maxTransfers) {
+                released.await();
+            }
+            transfers++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Transfert interrompu");
+        } finally {
+            gate.unlock();
+        }
+        long waited = System.nanoTime() - start;
+        if (waited > 1_000_000) queuedNanos.add(waited);
+    }
+
+    private void leave() {
+        gate.lock();
+        try {
+            transfers--;
+            released.signal();
+        } finally {
+            gate.unlock();
+        }
+    }
+
+    private void resize(int max) {
+        gate.lock();
+        try {
+            maxTransfers = Math.max(0, max);
+            released.signalAll();
+        } finally {
+            gate.unlock();
+        }
+    }
+
+    @Override
+    public long getGlobalRate() {
+        return globalRate;
+    }
+
+    @Override
+    public void setGlobalRate(long rate) {
+        globalRate = rate;
+    }
+
+    @Override
+    public long getIpRate() {
+        return hostRate;
+    }
+
+    @Override
+    public void setIpRate(long rate) {
+        hostRate = rate;
+    }
+
+    @Override
+    public long getSessionRate() {
+        return sessionRate;
+    }
+
+    @Override
+    public void setSessionRate(long rate) {
+        sessionRate = rate;
+    }
+
+    @Override
+    public int getMaxTransfers() {
+        return maxTransfers;
+    }
+
+    @Override
+    public void setMaxTransfers(int max) {
+        resize(max);
+    }
+
+    @Override
+    public String getReport() {
+        return describe();
+    }
+
+    final class Limiter {
+        private final String hostKey;
+        private final Host host;
+        private final Session session;
+        private boolean bulk;
+        private boolean metadata;
+
+        private Limiter(String hostKey, Host host, Session session) {
+            this.hostKey = hostKey;
+            this.host = host;
+            this.session = session;
+        }
+
+        Limiter stream() {
+            return new Limiter(null, host, session);
+        }
+
+        void beginBulk() throws IOException {
+            session.lock.lock();
+            try {
+                if (session.transfers == 0) admit();
+                session.transfers++;
+            } finally {
+                session.lock.unlock();
+            }
+            bulk = true;
+        }
+
+        void beginMetadata() {
+            metadata = true;
+            interactive.incrementAndGet();
+        }
+
+        void end() {
+            if (bulk) {
+                bulk = false;
+                session.lock.lock();
+                try {
+                    if (--session.transfers == 0) leave();
+                } finally {
+                    session.lock.unlock();
+                }
+            }
+            if (metadata) {
+                metadata = false;
+                interactive.decrementAndGet();
+            }
+        }
+
+        boolean active() {
+            return bulk && (globalRate > 0 || hostRate > 0 || sessionRate > 0 || interactive.get() > 0);
+        }
+
+        void acquire(long bytes) throws IOException {
+            if (!bulk) return;
+            if (interactive.get() > 0) {
+                long start = System.nanoTime();
+                long waited = 0;
+                while (interactive.get() > 0 && waited < MAX_YIELD_NANOS) {
+                    LockSupport.parkNanos(YIELD_NANOS);
+                    waited = System.nanoTime() - start;
+                }
+                yieldedNanos.add(waited);
+            }
+            long g = globalRate;
+            long h = hostRate;
+            long s = sessionRate;
+            if (g <= 0 && h <= 0 && s <= 0) return;
+            long now = System.nanoTime();
+            long wait = Math.max(global.reserve(bytes, g, now),
+                    Math.max(host.bucket.reserve(bytes, h, now), session.bucket.reserve(bytes, s, now)));
+            if (wait > 0) {
+                throttledNanos.add(wait);
+                LockSupport.parkNanos(wait);
+                if (Thread.interrupted()) throw new IOException("Transfert interrompu");
+            }
+        }
+
+        InputStream input(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = in.read();
+                    if (b >= 0) acquire(1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int r = in.read(b, off, bulk ? Math.min(len, QUANTUM) : len);
+                    if (r > 0) acquire(r);
+                    return r;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    long r = in.skip(bulk ? Math.min(n, QUANTUM) : n);
+                    if (r > 0) acquire(r);
+                    return r;
+                }
+            };
+        }
+
+        OutputStream output(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    acquire(1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    while (len > 0) {
+                        int n = bulk ? Math.min(len, QUANTUM) : len;
+                        out.write(b, off, n);
+                        acquire(n);
+                        off += n;
+                        len -= n;
+                    }
+                }
+            };
+        }
+
+        void close() {
+            end();
+            if (hostKey != null) hosts.computeIfPresent(hostKey, (k, v) -> --v.sessions == 0 ? null : v);
+        }
+    }
+}
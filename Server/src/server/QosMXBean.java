@@ -0,0 +1,22 @@
+package server;
+
+public interface QosMXBean {
+
+    long getGlobalRate();
+
+    void setGlobalRate(long rate);
+
+    long getIpRate();
+
+    void setIpRate(long rate);
+
+    long getSessionRate();
+
+    void setSessionRate(long rate);
+
+    int getMaxTransfers();
+
+    void setMaxTransfers(int max);
+
+    String getReport();
+}
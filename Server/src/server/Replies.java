@@ -0,0 +1,31 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+final class Replies {
+    static final byte[] OK = frame("OK");
+    static final byte[] END = frame("END");
+    static final byte[] BYE = frame("OK BYE");
+    static final byte[] CONNECTED = frame("OK CONNECTED");
+    static final byte[] NOT_A_FILE = frame("ERR Not a file");
+    static final byte[] NOT_A_DIRECTORY = frame("ERR Not a directory");
+    static final byte[] INVALID_OFFSET = frame("ERR Invalid offset");
+    static final byte[] EMPTY_COMMAND = frame("ERR Empty command");
+    static final byte[] UNKNOWN_COMMAND = frame("ERR Unknown command");
+    static final byte[] UNAVAILABLE = frame("ERR Commande non disponible dans ce mode");
+
+    private Replies() {}
+
+    static byte[] frame(String s) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() + 2);
+        try {
+            new DataOutputStream(bytes).writeUTF(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
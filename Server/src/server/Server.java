@@ -3,12 +3,19 @@ package server;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import com.sun.net.httpserver.HttpServer;
 
 public class Server {
     private static final int MIN_PORT = 5000;
@@ -49,17 +56,39 @@ public class Server {
             Path baseDir = Paths.get("server_storage").toAbsolutePath().normalize();
             Files.createDirectories(baseDir);
             System.out.println("Répertoire racine: " + baseDir);
+            ServerContext context = new ServerContext(baseDir);
+            if (ServerConfig.METRICS_PORT > 0) {
+                startMetricsEndpoint(context, ServerConfig.METRICS_PORT);
+            }
             
             InetAddress address = InetAddress.getByName(serverAddress);
-            try (ServerSocket serverSocket = new ServerSocket(port, 50, address)) {
-                System.out.println("Serveur démarré sur " + serverAddress + ":" + port + " ...");
+            try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+                serverChannel.bind(new InetSocketAddress(address, port), 50);
+                System.out.println("Serveur démarré sur " + serverAddress + ":" + port + " (mode " + ServerConfig.MODE + ") ...");
                 
+                if (ServerConfig.MODE.equals("nio")) {
+                    new NioServer(serverChannel, context, ServerConfig.IO_THREADS, ServerConfig.MAX_SESSIONS).serve();
+                }
+                ExecutorService sessions = newSessionExecutor(ServerConfig.MODE);
+                Semaphore slots = new Semaphore(ServerConfig.MODE.equals("pool")
+                        ? Math.min(ServerConfig.MAX_SESSIONS, ServerConfig.POOL_THREADS) : ServerConfig.MAX_SESSIONS);
                 while (true) {
-                    Socket clientSocket = serverSocket.accept();
-                    ClientHandler handler = new ClientHandler(clientSocket, baseDir);
-                    Thread t = new Thread(handler);
-                    t.setDaemon(true);
-                    t.start();
+                    slots.acquireUninterruptibly();
+                    Socket clientSocket;
+                    try {
+                        clientSocket = serverChannel.accept().socket();
+                    } catch (IOException e) {
+                        slots.release();
+                        throw e;
+                    }
+                    ClientHandler handler = new ClientHandler(clientSocket, context);
+                    sessions.execute(() -> {
+                        try {
+                            handler.run();
+                        } finally {
+                            slots.release();
+                        }
+                    });
                 }
             }
         } catch (IOException e) {
@@ -67,6 +96,35 @@ public class Server {
         }
     }
 
+    private static void startMetricsEndpoint(ServerContext context, int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = context.metrics.report().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        http.setExecutor(Executors.newSingleThreadExecutor(Thread.ofPlatform().daemon().name("metrics-http").factory()));
+        http.start();
+        System.out.println("Métriques: http://127.0.0.1:" + port + "/metrics");
+    }
+
+    private static ExecutorService newSessionExecutor(String mode) {
+        switch (mode) {
+            case "virtual":
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("session-", 0).factory());
+            case "pool":
+                return Executors.newFixedThreadPool(ServerConfig.POOL_THREADS,
+                        Thread.ofPlatform().daemon().name("session-", 0).factory());
+            case "platform":
+                return Executors.newThreadPerTaskExecutor(Thread.ofPlatform().daemon().name("session-", 0).factory());
+            default:
+                throw new IllegalArgumentException("Mode inconnu: " + mode + " (platform, virtual, pool, nio)");
+        }
+    }
+
     private static boolean isValidIP(String ip) {
         if (ip == null || ip.isEmpty()) {
             return false;
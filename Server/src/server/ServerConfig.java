@@ -0,0 +1,53 @@
+package server;
+
+final class ServerConfig {
+    static final boolean ZERO_COPY = Boolean.parseBoolean(System.getProperty("server.zeroCopy", "true"));
+    static final String MODE = System.getProperty("server.mode", "platform");
+    static final int IO_THREADS = Integer.getInteger("server.ioThreads",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+    static final int MAX_SESSIONS = Integer.getInteger("server.maxSessions", 10_000);
+    static final int POOL_THREADS = Integer.getInteger("server.poolThreads", 256);
+    static final int NIO_WORKERS = Integer.getInteger("server.nioWorkers", 64);
+    static final String STORAGE = System.getProperty("server.storage", "files");
+    static final String CHUNK_DIR = System.getProperty("server.chunkDir", "server_chunks");
+    static final int CACHE_ENTRIES = Integer.getInteger("server.cacheEntries", 100_000);
+    static final String COMPRESSION = System.getProperty("server.compression", "deflate");
+    static final int DELETE_THREADS = Integer.getInteger("server.deleteThreads",
+            Runtime.getRuntime().availableProcessors());
+    static final String TRASH_DIR = System.getProperty("server.trashDir", "server_trash");
+    static final boolean ASYNC_DELETE = Boolean.parseBoolean(System.getProperty("server.asyncDelete", "false"));
+    static final String ACCESS_LOG = System.getProperty("server.accessLog", "server_access.log");
+    static final int ACCESS_LOG_BUFFER = Integer.getInteger("server.accessLogBuffer", 8192);
+    static final String ACCESS_LOG_POLICY = System.getProperty("server.accessLogPolicy", "drop");
+    static final long ACCESS_LOG_MAX_BYTES = Long.getLong("server.accessLogMaxBytes", 64L * 1024 * 1024);
+    static final int ACCESS_LOG_FILES = Integer.getInteger("server.accessLogFiles", 5);
+    static final int METRICS_PORT = Integer.getInteger("server.metricsPort", 0);
+    static final int COMPRESSION_LEVEL = Integer.getInteger("server.compressionLevel", 1);
+    static final long MAP_BUDGET = Long.getLong("server.mapBudget", 256L * 1024 * 1024);
+    static final long MAP_MAX_FILE = Long.getLong("server.mapMaxFile", 16L * 1024 * 1024);
+    static final String FSYNC = System.getProperty("server.fsync", "group");
+    static final long FSYNC_INTERVAL_MS = Long.getLong("server.fsyncIntervalMs", 5);
+    static final long RANGE_TIMEOUT_MS = Long.getLong("server.rangeTimeoutMs", 10 * 60_000L);
+    static final String UPLOAD_TMP_DIR = System.getProperty("server.uploadTmpDir", ".server_tmp");
+    static final String RATE_GLOBAL = System.getProperty("server.rateGlobal", "0");
+    static final String RATE_IP = System.getProperty("server.rateIp", "0");
+    static final String RATE_SESSION = System.getProperty("server.rateSession", "0");
+    static final int MAX_TRANSFERS = Integer.getInteger("server.maxTransfers", 0);
+    static final boolean NAME_INDEX = Boolean.parseBoolean(System.getProperty("server.nameIndex", "true"));
+    static final int INDEX_THREADS = Integer.getInteger("server.indexThreads",
+            Runtime.getRuntime().availableProcessors());
+    static final int INDEX_WATCH_LIMIT = Integer.getInteger("server.indexWatchLimit", 8192);
+
+    static final String INTEGRITY = System.getProperty("server.integrity", "crc32c");
+    static final String CHECKSUM_DIR = System.getProperty("server.checksumDir", "server_checksums");
+    static final int CHECKSUM_ENTRIES = Integer.getInteger("server.checksumEntries", 100_000);
+    static final int MUX_WINDOW = Integer.getInteger("server.muxWindow", 256 * 1024);
+    static final int MUX_MAX_STREAMS = Integer.getInteger("server.muxMaxStreams", 32);
+    static final int BUFFER_POOL = Integer.getInteger("server.bufferPool", 256);
+    static final boolean USAGE = Boolean.parseBoolean(System.getProperty("server.usage", "true"));
+    static final String QUOTAS = System.getProperty("server.quotas", "");
+    static final String QUOTA_DIR = System.getProperty("server.quotaDir", "0");
+    static final String QUOTA_CLIENT = System.getProperty("server.quotaClient", "0");
+
+    private ServerConfig() {}
+}
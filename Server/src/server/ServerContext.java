@@ -0,0 +1,60 @@
+package server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public final class ServerContext {
+    final Path baseDir;
+    final DirectoryCache directories;
+    final Storage storage;
+    final TreeDeleter deleter;
+    final Durability durability;
+    final NameIndex names;
+    final Usage usage;
+    final Allocations allocations;
+    final Checksums checksums;
+    final AccessLog accessLog;
+    final Metrics metrics = new Metrics();
+    final Qos qos = new Qos(Qos.parseRate(ServerConfig.RATE_GLOBAL), Qos.parseRate(ServerConfig.RATE_IP),
+            Qos.parseRate(ServerConfig.RATE_SESSION), ServerConfig.MAX_TRANSFERS);
+
+    public ServerContext(Path baseDir) throws IOException {
+        this.baseDir = baseDir;
+        this.directories = new DirectoryCache(ServerConfig.CACHE_ENTRIES);
+        Path staging = baseDir.resolve(ServerConfig.UPLOAD_TMP_DIR).normalize();
+        if (baseDir.startsWith(staging)) {
+            throw new IOException("Dossier temporaire invalide: " + staging);
+        }
+        if (staging.startsWith(baseDir)) Listing.hide(staging);
+        this.durability = new Durability(ServerConfig.FSYNC, staging, ServerConfig.FSYNC_INTERVAL_MS);
+        if (ServerConfig.STORAGE.equals("dedup")) {
+            DedupStorage dedup = new DedupStorage(baseDir, Paths.get(ServerConfig.CHUNK_DIR).toAbsolutePath().normalize(),
+                    durability);
+            dedup.sweep();
+            this.storage = dedup;
+        } else {
+            this.storage = new FileStorage(ServerConfig.MAP_BUDGET > 0
+                    ? new MappedCache(ServerConfig.MAP_BUDGET, ServerConfig.MAP_MAX_FILE) : null);
+        }
+        this.names = ServerConfig.NAME_INDEX
+                ? new NameIndex(baseDir, ServerConfig.INDEX_THREADS, ServerConfig.INDEX_WATCH_LIMIT) : null;
+        this.usage = ServerConfig.USAGE ? new Usage(baseDir, storage, ServerConfig.INDEX_THREADS, ServerConfig.QUOTAS,
+                Qos.parseRate(ServerConfig.QUOTA_DIR), Qos.parseRate(ServerConfig.QUOTA_CLIENT)) : null;
+        this.allocations = new Allocations(staging.resolve("ranges"), ServerConfig.RANGE_TIMEOUT_MS);
+        this.checksums = new Checksums(baseDir, Paths.get(ServerConfig.CHECKSUM_DIR).toAbsolutePath().normalize(),
+                ServerConfig.CHECKSUM_ENTRIES);
+        this.accessLog = AccessLog.start();
+        this.deleter = new TreeDeleter(ServerConfig.DELETE_THREADS,
+                Paths.get(ServerConfig.TRASH_DIR).toAbsolutePath().normalize());
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("server:type=Metrics"));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(qos, new ObjectName("server:type=Qos"));
+        } catch (JMException e) {
+            System.err.println("Enregistrement JMX impossible: " + e.getMessage());
+        }
+    }
+}
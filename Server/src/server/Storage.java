@@ -0,0 +1,24 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+interface Storage {
+
+    ContentSource open(Path file) throws IOException;
+
+    default long size(Path file) throws IOException {
+        try (ContentSource source = open(file)) {
+            return source.size();
+        }
+    }
+
+    boolean streaming();
+
+    void store(InputStream in, long size, Path dest) throws IOException;
+
+    void ingest(Path file) throws IOException;
+
+    String stats();
+}
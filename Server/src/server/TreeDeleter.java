@@ -0,0 +1,193 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+final class TreeDeleter {
+    private static final int PARALLEL_DEPTH = 3;
+    private static final int MAX_ERRORS = 10;
+
+    private final ForkJoinPool pool;
+    private final Path trash;
+    private final LinkedBlockingQueue<Path> pending = new LinkedBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder reapedTrees = new LongAdder();
+    private final LongAdder reapedEntries = new LongAdder();
+    private final LongAdder reapErrors = new LongAdder();
+
+    static final class Progress {
+        private final Path root;
+        private final LongAdder deleted = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+
+        Progress(Path root) {
+            this.root = root;
+        }
+
+        long deleted() {
+            return deleted.sum();
+        }
+
+        long failed() {
+            return failed.sum();
+        }
+
+        String describe() {
+            return deleted() + " supprimés, " + failed() + " erreur(s)"
+                    + (errors.isEmpty() ? "" : ": " + String.join("; ", errors));
+        }
+
+        private void error(Path p, IOException e) {
+            failed.increment();
+            if (errors.size() < MAX_ERRORS) {
+                Path rel = root.relativize(p);
+                errors.add((rel.toString().isEmpty() ? "." : rel) + " (" + e.getClass().getSimpleName() + ")");
+            }
+        }
+    }
+
+    TreeDeleter(int parallelism, Path trash) throws IOException {
+        this.pool = new ForkJoinPool(parallelism);
+        this.trash = trash;
+        Files.createDirectories(trash);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(trash)) {
+            for (Path p : leftovers) {
+                pending.add(p);
+            }
+        }
+        Thread t = new Thread(this::reap, "trash-reaper");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    ForkJoinTask<?> delete(Path root, Progress progress) {
+        return pool.submit(new DeleteTask(root, 0, progress));
+    }
+
+    boolean moveToTrash(Path root) {
+        Path dest = trash.resolve(sequence.incrementAndGet() + "-" + System.currentTimeMillis() + "-" + root.getFileName());
+        try {
+            Files.move(root, dest, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            return false;
+        }
+        pending.add(dest);
+        return true;
+    }
+
+    String stats() {
+        return "trash pending=" + pending.size() + " reaped=" + reapedTrees.sum()
+                + " entries=" + reapedEntries.sum() + " errors=" + reapErrors.sum();
+    }
+
+    private void reap() {
+        while (true) {
+            Path tree;
+            try {
+                tree = pending.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Progress progress = new Progress(tree);
+            delete(tree, progress).join();
+            reapedTrees.increment();
+            reapedEntries.add(progress.deleted());
+            reapErrors.add(progress.failed());
+            if (progress.failed() > 0) {
+                System.err.println("Erreur corbeille " + tree.getFileName() + ": " + progress.describe());
+            }
+        }
+    }
+
+    private static void deleteOne(Path p, Progress progress) {
+        try {
+            Files.delete(p);
+            progress.deleted.increment();
+        } catch (IOException e) {
+            progress.error(p, e);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class DeleteTask extends RecursiveAction {
+        private final Path dir;
+        private final int depth;
+        private final Progress progress;
+
+        DeleteTask(Path dir, int depth, Progress progress) {
+            this.dir = dir;
+            this.depth = depth;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (depth >= PARALLEL_DEPTH) {
+                walk();
+                return;
+            }
+            List<DeleteTask> children = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path p : entries) {
+                    if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+                        DeleteTask child = new DeleteTask(p, depth + 1, progress);
+                        child.fork();
+                        children.add(child);
+                    } else {
+                        deleteOne(p, progress);
+                    }
+                }
+            } catch (IOException e) {
+                progress.error(dir, e);
+            }
+            for (DeleteTask child : children) {
+                child.join();
+            }
+            deleteOne(dir, progress);
+        }
+
+        private void walk() {
+            try {
+                Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        deleteOne(file, progress);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        progress.error(file, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path d, IOException e) {
+                        if (e != null) progress.error(d, e);
+                        deleteOne(d, progress);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                progress.error(dir, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+final class TreeStream {
+    static final byte DIRECTORY = 'D';
+    static final byte FILE = 'F';
+    static final byte LARGE = 'L';
+    static final byte END = 'E';
+
+    record Totals(int directories, int files, int deferred, int rejected, long bytes) {
+        String describe() {
+            return files + " fichiers, " + directories + " dossiers, " + bytes + " octets"
+                    + (deferred > 0 ? ", " + deferred + " fichiers volumineux à part" : "")
+                    + (rejected > 0 ? ", " + rejected + " refusés" : "");
+        }
+    }
+
+    interface Admission {
+        boolean admit(Path target, long size);
+    }
+
+    private TreeStream() {}
+
+    static Totals send(Path root, Storage storage, long largeThreshold, DataOutputStream out) throws IOException {
+        int[] counts = new int[3];
+        long[] bytes = new long[1];
+        byte[] buffer = BufferPool.array();
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (Listing.hidden(dir)) return FileVisitResult.SKIP_SUBTREE;
+                    if (!dir.equals(root)) {
+                        out.writeByte(DIRECTORY);
+                        out.writeUTF(relative(root, dir));
+                        counts[0]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+                    long size = storage.size(file);
+                    if (largeThreshold > 0 && size >= largeThreshold) {
+                        out.writeByte(LARGE);
+                        out.writeUTF(relative(root, file));
+                        out.writeLong(size);
+                        counts[2]++;
+                        return FileVisitResult.CONTINUE;
+                    }
+                    try (ContentSource source = storage.open(file)) {
+                        out.writeByte(FILE);
+                        out.writeUTF(relative(root, file));
+                        out.writeLong(size);
+                        for (long position = 0; position < size; ) {
+                            wrapped.clear().limit((int) Math.min(buffer.length, size - position));
+                            int r = source.read(wrapped, position);
+                            if (r <= 0) throw new IOException("Fichier tronqué pendant le transfert");
+                            out.write(buffer, 0, r);
+                            position += r;
+                        }
+                    }
+                    counts[1]++;
+                    bytes[0] += size;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            BufferPool.release(buffer);
+        }
+        out.writeByte(END);
+        out.flush();
+        return new Totals(counts[0], counts[1], counts[2], 0, bytes[0]);
+    }
+
+    static Totals receive(Path root, Storage storage, Durability durability, DataInputStream in, Admission admission)
+            throws IOException {
+        int directories = 0;
+        int files = 0;
+        int rejected = 0;
+        long bytes = 0;
+        List<CompletableFuture<Void>> published = new ArrayList<>();
+        try {
+            while (true) {
+                byte op = in.readByte();
+                if (op == END) break;
+                if (op != DIRECTORY && op != FILE) throw new IOException("Trame d'arborescence inconnue: " + op);
+                Path target = root.resolve(in.readUTF()).normalize();
+                boolean valid = target.startsWith(root) && !target.equals(root) && !Listing.hidden(target);
+                if (op == DIRECTORY) {
+                    if (valid) {
+                        Files.createDirectories(target);
+                        directories++;
+                    } else {
+                        rejected++;
+                    }
+                    continue;
+                }
+                long size = in.readLong();
+                if (size < 0) throw new IOException("Taille invalide");
+                if (!valid || Files.isDirectory(target) || !admission.admit(target, size)) {
+                    in.skipNBytes(size);
+                    rejected++;
+                    continue;
+                }
+                Files.createDirectories(target.getParent());
+                if (storage.streaming()) {
+                    storage.store(in, size, target);
+                } else {
+                    published.add(store(in, size, target, durability));
+                }
+                files++;
+                bytes += size;
+            }
+        } catch (IOException e) {
+            for (CompletableFuture<Void> f : published) {
+                f.exceptionally(x -> null).join();
+            }
+            throw e;
+        }
+        awaitAll(published);
+        return new Totals(directories, files, 0, rejected, bytes);
+    }
+
+    private static CompletableFuture<Void> store(DataInputStream in, long size, Path target, Durability durability)
+            throws IOException {
+        Path temp = durability.temp(target);
+        try (FileChannel fc = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            FileTransfer.receive(in, fc, 0, size);
+        } catch (IOException e) {
+            durability.discard(temp);
+            throw e;
+        }
+        return durability.publishAsync(temp, target);
+    }
+
+    private static void awaitAll(List<CompletableFuture<Void>> published) throws IOException {
+        IOException failure = null;
+        for (CompletableFuture<Void> f : published) {
+            try {
+                f.join();
+            } catch (CompletionException e) {
+                if (failure == null) failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private static String relative(Path root, Path p) {
+        StringBuilder sb = new StringBuilder();
+        for (Path name : root.relativize(p)) {
+            if (sb.length() > 0) sb.append('/');
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,402 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongPredicate;
+
+final class Usage {
+    private static final long GROWTH_STEP = 1 << 20;
+
+    private final Path baseDir;
+    private final Storage storage;
+    private final ForkJoinPool pool;
+    private final Map<String, Long> limits = new HashMap<>();
+    private final long directoryLimit;
+    private final long clientLimit;
+    private final HashMap<String, Client> clients = new HashMap<>();
+    private final List<Path> pending = new ArrayList<>();
+    private Dir root;
+    private long refused;
+    private long buildMillis = -1;
+
+    record Totals(long bytes, long files, long directories, long limit) {}
+
+    private static final class Client {
+        long bytes;
+        long reserved;
+    }
+
+    private static final class Dir {
+        final Dir parent;
+        final String name;
+        final long limit;
+        HashMap<String, Dir> subdirs;
+        HashMap<String, Long> files;
+        long bytes;
+        long fileCount;
+        long dirCount;
+        long reserved;
+
+        Dir(Dir parent, String name, long limit) {
+            this.parent = parent;
+            this.name = name;
+            this.limit = limit;
+        }
+
+        String path() {
+            if (parent == null) return ".";
+            String p = parent.path();
+            return p.equals(".") ? name : p + "/" + name;
+        }
+    }
+
+    final class Reservation {
+        final String refusal;
+        private final Dir dir;
+        private final String client;
+        private final long bytes;
+        private boolean released;
+
+        private Reservation(Dir dir, String client, long bytes, String refusal) {
+            this.dir = dir;
+            this.client = client;
+            this.bytes = bytes;
+            this.refusal = refusal;
+        }
+
+        boolean accepted() {
+            return refusal == null;
+        }
+
+        void release() {
+            synchronized (Usage.this) {
+                if (released || bytes <= 0) return;
+                released = true;
+                for (Dir d = dir; d != null; d = d.parent) {
+                    d.reserved -= bytes;
+                }
+                Client c = clients.get(client);
+                if (c != null) c.reserved -= bytes;
+            }
+        }
+    }
+
+    final class Growth implements LongPredicate {
+        String refusal;
+        private final Path target;
+        private final String client;
+        private final long base;
+        private final List<Reservation> held = new ArrayList<>();
+        private long reserved;
+
+        private Growth(Path target, String client, long base) {
+            this.target = target;
+            this.client = client;
+            this.base = base;
+        }
+
+        @Override
+        public boolean test(long size) {
+            long needed = size - base - reserved;
+            if (needed <= 0) return true;
+            Reservation r = reserve(target, client, Math.max(needed, GROWTH_STEP));
+            if (!r.accepted() && needed < GROWTH_STEP) r = reserve(target, client, needed);
+            if (!r.accepted()) {
+                refusal = r.refusal;
+                return false;
+            }
+            held.add(r);
+            reserved += r.bytes;
+            return true;
+        }
+
+        void release() {
+            for (Reservation r : held) {
+                r.release();
+            }
+            held.clear();
+        }
+    }
+
+    Usage(Path baseDir, Storage storage, int threads, String quotas, long directoryLimit, long clientLimit) {
+        this.baseDir = baseDir;
+        this.storage = storage;
+        this.pool = new ForkJoinPool(threads);
+        this.directoryLimit = directoryLimit;
+        this.clientLimit = clientLimit;
+        for (String quota : quotas.split(",")) {
+            if (quota.isBlank()) continue;
+            int eq = quota.lastIndexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Quota invalide: " + quota);
+            Path dir = baseDir.resolve(quota.substring(0, eq).trim()).normalize();
+            if (!dir.startsWith(baseDir)) throw new IllegalArgumentException("Quota hors du stockage: " + quota);
+            limits.put(relative(dir), Qos.parseRate(quota.substring(eq + 1)));
+        }
+        Thread t = new Thread(this::build, "usage-scan");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    synchronized boolean ready() {
+        return root != null;
+    }
+
+    synchronized Totals totals(Path dir) {
+        Dir d = lookup(dir);
+        if (d == null) return null;
+        return new Totals(d.bytes, d.fileCount, d.dirCount, d.limit);
+    }
+
+    synchronized long size(Path file) {
+        Dir parent = root != null && !file.equals(baseDir) ? lookup(file.getParent()) : null;
+        if (parent == null || parent.files == null) return 0;
+        return parent.files.getOrDefault(file.getFileName().toString(), 0L);
+    }
+
+    synchronized Reservation reserve(Path target, String client, long bytes) {
+        if (root == null || bytes <= 0) return new Reservation(null, client, 0, null);
+        Dir dir = null;
+        for (Path p = target.getParent(); p != null && p.startsWith(baseDir) && dir == null; p = p.getParent()) {
+            dir = lookup(p);
+        }
+        for (Dir d = dir; d != null; d = d.parent) {
+            if (d.limit > 0 && d.bytes + d.reserved + bytes > d.limit) {
+                refused++;
+                return new Reservation(null, client, 0, "Quota dépassé pour " + d.path() + " ("
+                        + (d.bytes + d.reserved) + " + " + bytes + " > " + d.limit + " octets)");
+            }
+        }
+        Client c = clients.computeIfAbsent(client, k -> new Client());
+        if (clientLimit > 0 && c.bytes + c.reserved + bytes > clientLimit) {
+            refused++;
+            return new Reservation(null, client, 0, "Quota client dépassé (" + (c.bytes + c.reserved) + " + " + bytes
+                    + " > " + clientLimit + " octets)");
+        }
+        for (Dir d = dir; d != null; d = d.parent) {
+            d.reserved += bytes;
+        }
+        c.reserved += bytes;
+        return new Reservation(dir, client, bytes, null);
+    }
+
+    Growth growth(Path target, String client) {
+        return new Growth(target, client, size(target));
+    }
+
+    void refresh(Path path, String client) {
+        apply(path, client, false);
+    }
+
+    void refreshTree(Path path, String client) {
+        apply(path, client, true);
+    }
+
+    synchronized String stats() {
+        long reserved = 0;
+        for (Client c : clients.values()) reserved += c.reserved;
+        if (root == null) return "usage build=en cours";
+        return "usage bytes=" + root.bytes + " files=" + root.fileCount + " directories=" + root.dirCount
+                + " reserved=" + reserved + " refused=" + refused + " clients=" + clients.size()
+                + " build=" + buildMillis + "ms";
+    }
+
+    private synchronized void apply(Path path, String client, boolean tree) {
+        if (!path.startsWith(baseDir) || Listing.hidden(path)) return;
+        if (root == null) {
+            pending.add(path);
+            return;
+        }
+        long before = root.bytes;
+        if (path.equals(baseDir)) {
+            if (tree) rescan(root, baseDir);
+        } else {
+            update(path, tree);
+        }
+        long delta = root.bytes - before;
+        if (delta != 0 && client != null) {
+            Client c = clients.computeIfAbsent(client, k -> new Client());
+            c.bytes = Math.max(0, c.bytes + delta);
+        }
+    }
+
+    private void update(Path path, boolean tree) {
+        Dir parent = lookup(path.getParent());
+        if (parent == null) {
+            update(path.getParent(), false);
+            return;
+        }
+        String name = path.getFileName().toString();
+        Long old = parent.files != null ? parent.files.get(name) : null;
+        Dir sub = parent.subdirs != null ? parent.subdirs.get(name) : null;
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            attrs = null;
+        }
+        if (attrs != null && attrs.isDirectory()) {
+            if (old != null) removeFile(parent, name, old);
+            if (sub == null) {
+                sub = new Dir(parent, name, limitFor(path));
+                pool.invoke(new ScanTask(path, sub));
+                if (parent.subdirs == null) parent.subdirs = new HashMap<>();
+                parent.subdirs.put(name, sub);
+                add(parent, sub.bytes, sub.fileCount, sub.dirCount + 1);
+            } else if (tree) {
+                rescan(sub, path);
+            }
+        } else if (attrs != null) {
+            if (sub != null) detach(parent, name, sub);
+            long size = sizeOf(path, attrs.size());
+            if (parent.files == null) parent.files = new HashMap<>();
+            parent.files.put(name, size);
+            add(parent, size - (old != null ? old : 0), old != null ? 0 : 1, 0);
+        } else {
+            if (sub != null) detach(parent, name, sub);
+            if (old != null) removeFile(parent, name, old);
+        }
+    }
+
+    private void rescan(Dir dir, Path path) {
+        long bytes = dir.bytes;
+        long files = dir.fileCount;
+        long dirs = dir.dirCount;
+        dir.bytes = dir.fileCount = dir.dirCount = 0;
+        pool.invoke(new ScanTask(path, dir));
+        if (dir.parent != null) add(dir.parent, dir.bytes - bytes, dir.fileCount - files, dir.dirCount - dirs);
+    }
+
+    private void removeFile(Dir parent, String name, long size) {
+        parent.files.remove(name);
+        if (parent.files.isEmpty()) parent.files = null;
+        add(parent, -size, -1, 0);
+    }
+
+    private void detach(Dir parent, String name, Dir sub) {
+        parent.subdirs.remove(name);
+        if (parent.subdirs.isEmpty()) parent.subdirs = null;
+        add(parent, -sub.bytes, -sub.fileCount, -sub.dirCount - 1);
+    }
+
+    private static void add(Dir dir, long bytes, long files, long dirs) {
+        for (Dir d = dir; d != null; d = d.parent) {
+            d.bytes += bytes;
+            d.fileCount += files;
+            d.dirCount += dirs;
+        }
+    }
+
+    private void build() {
+        long start = System.currentTimeMillis();
+        Dir built = new Dir(null, "", limitFor(baseDir));
+        pool.invoke(new ScanTask(baseDir, built));
+        synchronized (this) {
+            root = built;
+            for (Path p : pending) {
+                apply(p, null, true);
+            }
+            pending.clear();
+            buildMillis = System.currentTimeMillis() - start;
+        }
+        System.out.println("Occupation: " + built.fileCount + " fichiers, " + built.bytes + " octets en "
+                + buildMillis + " ms");
+    }
+
+    @SuppressWarnings("serial")
+    private final class ScanTask extends RecursiveAction {
+        private final Path path;
+        private final Dir dir;
+
+        ScanTask(Path path, Dir dir) {
+            this.path = path;
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            HashMap<String, Long> files = new HashMap<>();
+            HashMap<String, Dir> subdirs = new HashMap<>();
+            List<ScanTask> children = new ArrayList<>();
+            try {
+                Listing.scan(path, entry -> {
+                    Path p = path.resolve(entry.name());
+                    if (entry.directory()) {
+                        Dir child = new Dir(dir, entry.name(), limitFor(p));
+                        subdirs.put(entry.name(), child);
+                        ScanTask task = new ScanTask(p, child);
+                        task.fork();
+                        children.add(task);
+                    } else {
+                        files.put(entry.name(), sizeOf(p, entry.size()));
+                    }
+                    return true;
+                });
+            } catch (IOException ignored) {
+            }
+            long bytes = 0;
+            for (long size : files.values()) bytes += size;
+            long fileCount = files.size();
+            long dirCount = subdirs.size();
+            for (ScanTask t : children) {
+                t.join();
+                bytes += t.dir.bytes;
+                fileCount += t.dir.fileCount;
+                dirCount += t.dir.dirCount;
+            }
+            dir.files = files.isEmpty() ? null : files;
+            dir.subdirs = subdirs.isEmpty() ? null : subdirs;
+            dir.bytes = bytes;
+            dir.fileCount = fileCount;
+            dir.dirCount = dirCount;
+        }
+    }
+
+    private long sizeOf(Path file, long onDisk) {
+        if (!(storage instanceof DedupStorage)) return onDisk;
+        try {
+            return storage.size(file);
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            return onDisk;
+        }
+    }
+
+    private long limitFor(Path dir) {
+        Long limit = limits.get(relative(dir));
+        if (limit != null) return limit;
+        return baseDir.equals(dir.getParent()) ? directoryLimit : 0;
+    }
+
+    private String relative(Path dir) {
+        StringBuilder sb = new StringBuilder();
+        for (Path name : baseDir.relativize(dir)) {
+            if (name.toString().isEmpty()) continue;
+            if (sb.length() > 0) sb.append('/');
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
+    private Dir lookup(Path path) {
+        if (path == null || !path.startsWith(baseDir)) return null;
+        Dir dir = root;
+        for (Path name : baseDir.relativize(path)) {
+            if (name.toString().isEmpty()) continue;
+            if (dir.subdirs == null) return null;
+            dir = dir.subdirs.get(name.toString());
+            if (dir == null) return null;
+        }
+        return dir;
+    }
+}